@@ -5,6 +5,7 @@ import play.http.HttpFilters;
 import play.mvc.*;
 
 import filters.ExampleFilter;
+import filters.MetricsFilter;
 
 /**
  * This class configures filters that run on every request. This
@@ -20,26 +21,29 @@ public class Filters implements HttpFilters {
 
     private final Environment env;
     private final EssentialFilter exampleFilter;
+    private final EssentialFilter metricsFilter;
 
     /**
      * @param env Basic environment settings for the current application.
      * @param exampleFilter A demonstration filter that adds a header to
+     * @param metricsFilter Records request latency and status per route.
      */
     @Inject
-    public Filters(Environment env, ExampleFilter exampleFilter) {
+    public Filters(Environment env, ExampleFilter exampleFilter,
+                   MetricsFilter metricsFilter) {
         this.env = env;
         this.exampleFilter = exampleFilter;
+        this.metricsFilter = metricsFilter;
     }
 
     @Override
     public EssentialFilter[] filters() {
-      // Use the example filter if we're running development mode. If
-      // we're running in production or test mode then don't use any
-      // filters at all.
+      // Request metrics are recorded in every mode. Use the example
+      // filter too if we're running development mode.
       if (env.mode().equals(Mode.DEV)) {
-          return new EssentialFilter[] { exampleFilter };
+          return new EssentialFilter[] { metricsFilter, exampleFilter };
       } else {
-         return new EssentialFilter[] {};      
+         return new EssentialFilter[] { metricsFilter };
       }
     }
 
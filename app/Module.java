@@ -1,9 +1,8 @@
 import com.google.inject.AbstractModule;
-import java.time.Clock;
 
-//import services.ApplicationTimer;
-//import services.AtomicCounter;
-//import services.Counter;
+import services.MailDispatcher;
+import services.PasswordHasher;
+import services.TransactionTotalsVerifier;
 
 /**
  * This class is a Guice module that tells Guice how to bind several
@@ -15,16 +14,15 @@ import java.time.Clock;
  * adding `play.modules.enabled` settings to the `application.conf`
  * configuration file.
  */
-//public class Module extends AbstractModule {
-//
-//    @Override
-//    public void configure() {
-//        // Use the system clock as the default implementation of Clock
-//        bind(Clock.class).toInstance(Clock.systemDefaultZone());
-//        // Ask Guice to create an instance of ApplicationTimer when the
-//        // application starts.
-//        bind(ApplicationTimer.class).asEagerSingleton();
-//        // Set AtomicCounter as the implementation for Counter.
-//        bind(Counter.class).to(AtomicCounter.class);
-//    }
-//}
+public class Module extends AbstractModule {
+
+    @Override
+    public void configure() {
+        // Reconcile transaction totals against their items in the background.
+        bind(TransactionTotalsVerifier.class).asEagerSingleton();
+        // Deliver queued receipt emails in the background.
+        bind(MailDispatcher.class).asEagerSingleton();
+        // Calibrate password hashing cost at startup rather than on first login.
+        bind(PasswordHasher.class).asEagerSingleton();
+    }
+}
@@ -6,12 +6,24 @@ import views.html.home.*;
 import models.User;
 import play.data.Form;
 import lib.GBController;
+import services.LoginThrottle;
+
+import javax.inject.Inject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Manages authentication, welcome, and application home page routes.
  * @author Dean Papastrat, Alex Woods
  */
 public class HomeController extends GBController {
+
+    /**
+     * Rate limits login attempts in memory.
+     */
+    @Inject
+    private LoginThrottle loginThrottle;
+
     /**
      * Determine whether the application should create the startup user
      * for beta testing.
@@ -23,21 +35,23 @@ public class HomeController extends GBController {
      *
      * @return if authenticated, home page HTML, else welcome page HTML
      */
-    public final Result index() {
-        if (startup) {
-            User test = new User("user", "user@gatech.edu", "pass");
-            test.isSuperUser = true;
-            if (test.validate() == null) {
-                test.save();
+    public final CompletionStage<Result> index() {
+        return withDatabase(() -> {
+            if (startup) {
+                User test = new User("user", "user@gatech.edu", "pass");
+                test.isSuperUser = true;
+                if (test.validate() == null) {
+                    test.save();
+                }
+                startup = false;
             }
-            startup = false;
-        }
 
-        if (Secured.isLoggedIn(ctx())) {
-            return ok(views.html.home.home.render("Home", "Home"));
-        } else {
-            return ok(views.html.home.index.render());
-        }
+            if (Secured.isLoggedIn(ctx())) {
+                return ok(views.html.home.home.render("Home", "Home"));
+            } else {
+                return ok(views.html.home.index.render());
+            }
+        });
     }
 
     /**
@@ -50,33 +64,55 @@ public class HomeController extends GBController {
 
     /**
      * Finds an existing user and authenticates them if credentials are correct.
+     * Attempts over the login rate limit are turned away before touching the
+     * database. The user is loaded and saved on the database pool, and only
+     * the password check runs on the password hashing pool.
      * @return redirect to home page or renders login form with auth error
      */
-    public final Result postLogin() {
-        User user = User.findByEmail(formParams().get("email"));
-
-        if (user != null) {
-            user.incLoginAttempts();
+    public final CompletionStage<Result> postLogin() {
+        String email = formParams().get("email");
+        String password = formParams().get("password");
+
+        if (!loginThrottle.tryAcquire(email, request().remoteAddress())) {
+            flash("error", "Too many login attempts. Please wait a minute and"
+                    + " try again.");
+            return CompletableFuture.completedFuture(
+                    status(TOO_MANY_REQUESTS, views.html.home.login.render())
+                            .withHeader(RETRY_AFTER, "60"));
         }
 
-        if (user == null) {
-            flash("error", "Wrong email or password. Please try again.");
-            return badRequest(views.html.home.login.render());
-        } else if (!user.canLogin()) {
-            flash("error", "No login attempts remaining. Please email admin@"
-                    + "garagebuddy.io to unlock your account.");
-            return badRequest(views.html.home.login.render());
-        } else if (user.checkPassword(formParams().get("password"))) {
-            user.resetLoginAttempts();
-            session().clear();
-            session("email", formParams().get("email"));
-            return redirect("/home");
-        } else {
-            flash("error", "Wrong email or password. "
-                    + user.getLoginAttemptsRemaining() + " login attempts"
-                    + " remaining. Please try again.");
-            return badRequest(views.html.home.login.render());
-        }
+        return orBusy(onDatabase(() -> User.findByEmail(email)).thenCompose(user -> {
+            if (user == null) {
+                flash("error", "Wrong email or password. Please try again.");
+                return CompletableFuture.completedFuture(
+                        badRequest(views.html.home.login.render()));
+            } else if (!user.canLogin()) {
+                flash("error", "No login attempts remaining. Please email admin@"
+                        + "garagebuddy.io to unlock your account.");
+                return CompletableFuture.completedFuture(
+                        badRequest(views.html.home.login.render()));
+            }
+
+            return hashing(() -> user.checkPassword(password))
+                    .thenCompose(correct -> onDatabase(() -> {
+                        if (correct) {
+                            loginThrottle.succeeded(email);
+                            user.saveRehashedPassword();
+                            if (user.getLoginAttempts() > 0) {
+                                user.resetLoginAttempts();
+                            }
+                            session().clear();
+                            session("email", email);
+                            return redirect("/home");
+                        } else {
+                            int remaining = user.recordFailedLogins(loginThrottle.failed(email));
+                            flash("error", "Wrong email or password. "
+                                    + remaining + " login attempts"
+                                    + " remaining. Please try again.");
+                            return badRequest(views.html.home.login.render());
+                        }
+                    }));
+        }));
     }
 
     /**
@@ -91,23 +127,28 @@ public class HomeController extends GBController {
      * Validates registration form and creates a user with the provided data.
      * @return redirect to home page or renders register form with errors
      */
-    public final Result postRegister() {
-        Form<User> userForm = modelForm(User.class);
-
-        if (!userForm.data().get("password").equals(userForm.data()
-                .get("confirmPassword"))) {
-            userForm.reject("Password and confirmation do not match.");
-        }
-
-        if (userForm.hasErrors()) {
-            flash("error", "Form has errors!");
-            return badRequest(views.html.home.register.render(userForm));
-        } else {
-            User user = userForm.get();
-            user.save();
-            session("email", user.email);
-            return redirect("/home");
-        }
+    public final CompletionStage<Result> postRegister() {
+        // Binding the form hashes the password, so it runs on the password
+        // hashing pool; saving and rendering go back to the database pool.
+        return orBusy(hashing(() -> {
+            Form<User> userForm = modelForm(User.class);
+
+            if (!userForm.data().get("password").equals(userForm.data()
+                    .get("confirmPassword"))) {
+                userForm.reject("Password and confirmation do not match.");
+            }
+            return userForm;
+        }).thenCompose(userForm -> onDatabase(() -> {
+            if (userForm.hasErrors()) {
+                flash("error", "Form has errors!");
+                return badRequest(views.html.home.register.render(userForm));
+            } else {
+                User user = userForm.get();
+                user.save();
+                session("email", user.email);
+                return redirect("/home");
+            }
+        })));
     }
 
     /**
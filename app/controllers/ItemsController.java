@@ -1,12 +1,24 @@
 package controllers;
 
+import lib.CsvReader;
 import lib.GBController;
+import lib.InputStreamBodyParser;
+import play.Logger;
 import play.data.Form;
+import play.libs.concurrent.HttpExecution;
 import play.mvc.*;
 import models.*;
 import views.html.items.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Manages endpoints
@@ -21,10 +33,12 @@ public class ItemsController extends GBController {
      * @return a webpage representing that item
      */
     @Security.Authenticated(Secured.class)
-    public Result create(int saleId) {
-        Sale sale = Sale.findById(saleId);
-        return ok(views.html.items.create.render(sale,
-                emptyModelForm(Item.class)));
+    public CompletionStage<Result> create(int saleId) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(saleId);
+            return ok(views.html.items.create.render(sale,
+                    emptyModelForm(Item.class)));
+        });
     }
 
     /**
@@ -33,22 +47,92 @@ public class ItemsController extends GBController {
      * @return redirects to inventory or renders item form with errors
      */
     @Security.Authenticated(Secured.class)
-    public Result postCreate(int saleId) {
-        Sale sale = Sale.findById(saleId);
-        Form<Item> itemForm = modelForm(Item.class);
-
-        if (itemForm.hasErrors()) {
-            return badRequest(views.html.items.create.render(sale, itemForm));
-        } else {
-            Item item = itemForm.get();
-            item.createdBy = currentUser();
-            if(formParam("bidding") != null && formParam("bidding").equals("on")) {
-                item.bidding = true;
+    public CompletionStage<Result> postCreate(int saleId) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(saleId);
+            Form<Item> itemForm = modelForm(Item.class);
+
+            if (itemForm.hasErrors()) {
+                return badRequest(views.html.items.create.render(sale, itemForm));
+            } else {
+                Item item = itemForm.get();
+                item.createdBy = currentUser();
+                if(formParam("bidding") != null && formParam("bidding").equals("on")) {
+                    item.bidding = true;
+                }
+                item.addToSale(sale); // Autosaves
+                searchIndex.put(item);
+                return redirect("/sales/"
+                        + Integer.toString(item.sale.id) + "/items");
             }
-            item.addToSale(sale); // Autosaves
-            return redirect("/sales/"
-                    + Integer.toString(item.sale.id) + "/items");
-        }
+        });
+    }
+
+    /**
+     * Imports items into a sale from an uploaded CSV or TSV body with a
+     * header row of name, price and optionally description, minprice and
+     * bidding. The body is streamed and inserted in batches of
+     * garagebuddy.import.batchSize, so uploads of any size use a small,
+     * fixed amount of memory, and each batch holds a database connection
+     * only while it is written. Send a text/tab-separated-values body or
+     * ?format=tsv for TSV.
+     *
+     * @param saleId the integer ID of the sale to import into
+     * @return JSON with the number of items imported and any line errors
+     */
+    @Security.Authenticated(Secured.class)
+    @BodyParser.Of(InputStreamBodyParser.class)
+    public CompletionStage<Result> postImport(int saleId) {
+        boolean tsv = "tsv".equalsIgnoreCase(request().getQueryString("format"))
+                || request().contentType().map(type -> type.equals("text/tab-separated-values"))
+                .orElse(false);
+        int batchSize = configuration.getInt("garagebuddy.import.batchSize", 500);
+        CsvReader reader = new CsvReader(new BufferedReader(new InputStreamReader(
+                request().body().as(InputStream.class), StandardCharsets.UTF_8)),
+                tsv ? '\t' : ',');
+
+        CompletionStage<Result> action = onDatabase(() -> {
+            Sale sale = Sale.findById(saleId);
+            return sale == null ? null : new ItemImport(sale, currentUser(), batchSize);
+        }).thenCompose(itemImport -> {
+            if (itemImport == null) {
+                return CompletableFuture.completedFuture(notFound());
+            }
+            return importBatches(itemImport, reader).thenApply(result -> {
+                if (result.imported() > 0) {
+                    searchIndex.invalidate(saleId);
+                }
+                if (result.imported() == 0 && result.failed() > 0) {
+                    return badRequest(result.toJson());
+                }
+                return ok(result.toJson());
+            });
+        });
+        return orBusy(action.whenComplete((result, error) -> {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                Logger.warn("Could not close import upload: " + e.getMessage());
+            }
+        }));
+    }
+
+    /**
+     * Reads the next batch of an import on Play's default dispatcher, where
+     * waiting on a slow upload holds no database connection, then writes it
+     * on the database pool, until the upload is used up.
+     *
+     * @param itemImport the import in progress
+     * @param reader rows of the upload
+     * @return the import, once every batch is written
+     */
+    private CompletionStage<ItemImport> importBatches(ItemImport itemImport, CsvReader reader) {
+        return CompletableFuture.supplyAsync(() -> itemImport.read(reader),
+                HttpExecution.defaultContext())
+                .thenCompose(batch -> onDatabase(() -> itemImport.write(batch)))
+                .thenCompose(more -> more
+                        ? importBatches(itemImport, reader)
+                        : CompletableFuture.completedFuture(itemImport));
     }
 
     /**
@@ -57,9 +141,11 @@ public class ItemsController extends GBController {
      * @return a webpage representing that sale
      */
     @Security.Authenticated(Secured.class)
-    public Result edit(int id) {
-        Item item = Item.findById(id);
-        return ok(views.html.items.edit.render(item, modelForm(item)));
+    public CompletionStage<Result> edit(int id) {
+        return withDatabase(() -> {
+            Item item = Item.findById(id);
+            return ok(views.html.items.edit.render(item, modelForm(item)));
+        });
     }
 
     /**
@@ -68,21 +154,24 @@ public class ItemsController extends GBController {
      * @return redirect to item page or renders item form with validation errors
      */
     @Security.Authenticated(Secured.class)
-    public Result postEdit(int id) {
-        Item item = Item.findById(id);
-        Form<Item> itemForm = modelForm(Item.class);
-
-        if (itemForm.hasErrors()) {
-            return badRequest(views.html.items.edit.render(item, itemForm));
-        } else {
-            item.name = formParam("name");
-            item.description = formParam("description");
-            item.minprice = Double.parseDouble(formParam("minprice"));
-            item.price = Double.parseDouble(formParam("price"));
-            item.save();
-            return redirect("/sales/"
-                    + Integer.toString(item.sale.id) + "/items");
-        }
+    public CompletionStage<Result> postEdit(int id) {
+        return withDatabase(() -> {
+            Item item = Item.findById(id);
+            Form<Item> itemForm = modelForm(Item.class);
+
+            if (itemForm.hasErrors()) {
+                return badRequest(views.html.items.edit.render(item, itemForm));
+            } else {
+                item.name = formParam("name");
+                item.description = formParam("description");
+                item.minprice = Double.parseDouble(formParam("minprice"));
+                item.price = Double.parseDouble(formParam("price"));
+                item.save();
+                searchIndex.put(item);
+                return redirect("/sales/"
+                        + Integer.toString(item.sale.id) + "/items");
+            }
+        });
     }
 
     /**
@@ -91,9 +180,11 @@ public class ItemsController extends GBController {
      * @return a webpage representing the bidding on the item
      */
     @Security.Authenticated(Secured.class)
-    public Result bid(int id) {
-        Item item = Item.findById(id);
-        return ok(views.html.items.bid.render(item, modelForm(item), currentUser()));
+    public CompletionStage<Result> bid(int id) {
+        return withDatabase(() -> {
+            Item item = Item.findById(id);
+            return ok(views.html.items.bid.render(item, modelForm(item), currentUser()));
+        });
     }
 
     /**
@@ -102,16 +193,18 @@ public class ItemsController extends GBController {
      * @return redirect to item's sale page
      */
     @Security.Authenticated(Secured.class)
-    public Result postBid(int id) {
-        Item item = Item.findById(id);
-        double bid = Double.parseDouble(formParam("bid"));
-        if (bid > item.currentBid) {
-            item.currentBid = bid;
-            item.reservedBy = currentUser();
-            item.save();
-        }
-        return redirect("/sales/"
-                    + Integer.toString(item.sale.id));
+    public CompletionStage<Result> postBid(int id) {
+        return withDatabase(() -> {
+            Item item = Item.findById(id);
+            double bid = Double.parseDouble(formParam("bid"));
+            if (bid > item.currentBid) {
+                item.currentBid = bid;
+                item.reservedBy = currentUser();
+                item.save();
+            }
+            return redirect("/sales/"
+                        + Integer.toString(item.sale.id));
+        });
     }
 
 
@@ -121,9 +214,11 @@ public class ItemsController extends GBController {
      * @return a page showing the confirmation
      */
     @Security.Authenticated(Secured.class)
-    public Result delete(int id) {
-        Item item = Item.findById(id);
-        return ok(views.html.items.delete.render(item));
+    public CompletionStage<Result> delete(int id) {
+        return withDatabase(() -> {
+            Item item = Item.findById(id);
+            return ok(views.html.items.delete.render(item));
+        });
     }
 
     /**
@@ -132,11 +227,14 @@ public class ItemsController extends GBController {
      * @return a redirect to sale's item index
      */
     @Security.Authenticated(Secured.class)
-    public Result postDelete(int id) {
-        Item item = Item.findById(id);
-        int saleId = item.sale.id;
-        item.delete();
-        return redirect("/sales/" + Integer.toString(saleId) + "/items");
+    public CompletionStage<Result> postDelete(int id) {
+        return withDatabase(() -> {
+            Item item = Item.findById(id);
+            int saleId = item.sale.id;
+            item.delete();
+            searchIndex.remove(saleId, id);
+            return redirect("/sales/" + Integer.toString(saleId) + "/items");
+        });
     }
 
 
@@ -146,11 +244,13 @@ public class ItemsController extends GBController {
      * @return the print tag of the individual item
      */
     @Security.Authenticated(Secured.class)
-    public Result tag(int id) {
-        Item item = Item.findById(id);
-        List<Item> items = new ArrayList<Item>();
-        items.add(item);
-        return ok(views.html.sales.tags.render(items, currentUser()));
+    public CompletionStage<Result> tag(int id) {
+        return withDatabase(() -> {
+            Item item = Item.findById(id);
+            List<Item> items = new ArrayList<Item>();
+            items.add(item);
+            return ok(views.html.sales.tags.render(items, currentUser(), null));
+        });
     }
 
 
@@ -0,0 +1,92 @@
+package controllers;
+
+import lib.GBController;
+import lib.JvmMetrics;
+import lib.Prometheus;
+import play.Environment;
+import play.mvc.*;
+import services.RequestMetrics;
+
+import javax.inject.Inject;
+
+/**
+ * Exposes application metrics for Prometheus to scrape.
+ *
+ * @author Dean Papastrat
+ */
+public class MetricsController extends GBController {
+
+    private static final String[] NO_LABELS = new String[0];
+
+    /**
+     * Per-route request metrics recorded by the metrics filter.
+     */
+    @Inject
+    private RequestMetrics requestMetrics;
+
+    /**
+     * Whether the app is running in production mode.
+     */
+    @Inject
+    private Environment environment;
+
+    /**
+     * Renders request, password hashing, database pool and JVM metrics in
+     * Prometheus text format. If garagebuddy.metrics.token is set, the
+     * scraper must send it as a bearer token. In production the endpoint is
+     * closed until a token is set.
+     *
+     * @return the metrics, 401 without the right token, or 404 in
+     *         production without a token configured
+     */
+    public final Result metrics() {
+        String token = configuration.getString("garagebuddy.metrics.token");
+        if (token == null || token.isEmpty()) {
+            if (environment.isProd()) {
+                return notFound();
+            }
+        } else if (!("Bearer " + token).equals(request().getHeader(AUTHORIZATION))) {
+            return unauthorized();
+        }
+
+        StringBuilder out = new StringBuilder(16 * 1024);
+        requestMetrics.write(out);
+
+        Prometheus.header(out, "password_hash_queue_wait_seconds", "histogram",
+                "Time password jobs waited for a hashing thread.");
+        Prometheus.histogram(out, "password_hash_queue_wait_seconds", NO_LABELS,
+                passwordHasher.queueWait());
+        Prometheus.header(out, "password_hash_duration_seconds", "histogram",
+                "Time password jobs ran on a hashing thread.");
+        Prometheus.histogram(out, "password_hash_duration_seconds", NO_LABELS,
+                passwordHasher.hashLatency());
+        Prometheus.header(out, "password_hash_queue_depth", "gauge",
+                "Password jobs waiting for a hashing thread.");
+        Prometheus.sample(out, "password_hash_queue_depth", NO_LABELS,
+                passwordHasher.queueDepth());
+        Prometheus.header(out, "password_hash_rejected_total", "counter",
+                "Password jobs turned away because the queue was full.");
+        Prometheus.sample(out, "password_hash_rejected_total", NO_LABELS,
+                passwordHasher.rejected());
+
+        Prometheus.header(out, "database_queue_wait_seconds", "histogram",
+                "Time database-bound actions waited for a database thread.");
+        Prometheus.histogram(out, "database_queue_wait_seconds", NO_LABELS,
+                database.queueWait());
+        Prometheus.header(out, "database_duration_seconds", "histogram",
+                "Time database-bound actions ran on a database thread.");
+        Prometheus.histogram(out, "database_duration_seconds", NO_LABELS,
+                database.latency());
+        Prometheus.header(out, "database_queue_depth", "gauge",
+                "Database-bound actions waiting for a database thread.");
+        Prometheus.sample(out, "database_queue_depth", NO_LABELS,
+                database.queueDepth());
+        Prometheus.header(out, "database_rejected_total", "counter",
+                "Database-bound actions turned away because the queue was full.");
+        Prometheus.sample(out, "database_rejected_total", NO_LABELS,
+                database.rejected());
+
+        JvmMetrics.write(out);
+        return ok(out.toString()).as(Prometheus.CONTENT_TYPE);
+    }
+}
@@ -1,17 +1,25 @@
 package controllers;
 
 import com.avaje.ebean.SqlRow;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import lib.Formatter;
 import lib.GBController;
+import lib.Page;
 import play.data.Form;
+import play.libs.Json;
 import play.mvc.*;
+import services.ItemSearchIndex;
+import services.ReportExporter;
 import models.*;
 import views.html.sales.*;
 
+import javax.inject.Inject;
 import java.net.URLEncoder;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.Collections;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Manages endpoints for sales.
@@ -20,16 +28,24 @@ import java.util.Collections;
  */
 public class SalesController extends GBController {
 
+    /**
+     * Streams report exports from the database.
+     */
+    @Inject
+    private ReportExporter exporter;
+
     /**
      * Returns an index of all sales.
      * @return sale index page
      */
     @Security.Authenticated(Secured.class)
-    public final Result index() {
-        List<Sale> allSales = Sale.FIND.all();
-        Collections.sort(allSales,
-                (o1, o2) -> o1.getStartDate().compareTo(o2.getStartDate()));
-        return ok(views.html.sales.index.render(allSales, currentUser()));
+    public final CompletionStage<Result> index() {
+        return withDatabase(() -> {
+            List<Sale> allSales = Sale.FIND.all();
+            Collections.sort(allSales,
+                    (o1, o2) -> o1.getStartDate().compareTo(o2.getStartDate()));
+            return ok(views.html.sales.index.render(allSales, currentUser()));
+        });
     }
 
     /**
@@ -37,9 +53,9 @@ public class SalesController extends GBController {
      * @return a webpage representing that sale
      */
     @Security.Authenticated(Secured.class)
-    public final Result create() {
-        return ok(views.html.sales.create.render(emptyModelForm(Sale.class),
-                currentUser()));
+    public final CompletionStage<Result> create() {
+        return withDatabase(() -> ok(views.html.sales.create.render(emptyModelForm(Sale.class),
+                currentUser())));
     }
 
     /**
@@ -47,26 +63,28 @@ public class SalesController extends GBController {
      * @return redirect to sale or renders sale form with validation errors
      */
     @Security.Authenticated(Secured.class)
-    public final Result postCreate() {
-        Form<Sale> saleForm = modelForm(Sale.class);
-
-        if (saleForm.hasErrors()) {
-            return badRequest(views.html.sales.create.render(saleForm,
-                    currentUser()));
-        } else {
-            Sale sale = saleForm.get();
-            sale.addUser(currentUser().email, Sale.Role.SALE_ADMIN);
+    public final CompletionStage<Result> postCreate() {
+        return withDatabase(() -> {
+            Form<Sale> saleForm = modelForm(Sale.class);
 
-            if (!sale.getEndDate().before(sale.getStartDate())) {
-                flash("success", "Sale created");
-                sale.save();
-                return redirect("/sales/" + Integer.toString(sale.id));
-            } else {
-                flash("error", "The end date can't be before the start date");
+            if (saleForm.hasErrors()) {
                 return badRequest(views.html.sales.create.render(saleForm,
                         currentUser()));
+            } else {
+                Sale sale = saleForm.get();
+                sale.addUser(currentUser().email, Sale.Role.SALE_ADMIN);
+
+                if (!sale.getEndDate().before(sale.getStartDate())) {
+                    flash("success", "Sale created");
+                    sale.save();
+                    return redirect("/sales/" + Integer.toString(sale.id));
+                } else {
+                    flash("error", "The end date can't be before the start date");
+                    return badRequest(views.html.sales.create.render(saleForm,
+                            currentUser()));
+                }
             }
-        }
+        });
     }
 
     /**
@@ -76,15 +94,17 @@ public class SalesController extends GBController {
      * @return a page representing that sale
      */
     @Security.Authenticated(Secured.class)
-    public final Result edit(final int id) {
-        Sale sale = Sale.findById(id);
-        if (sale.isClosed()) {
-            flash("warning", "This sale has been closed, and can no longer"
-                    + " be edited");
-        }
+    public final CompletionStage<Result> edit(final int id) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(id);
+            if (sale.isClosed()) {
+                flash("warning", "This sale has been closed, and can no longer"
+                        + " be edited");
+            }
 
-        return ok(views.html.sales.edit.render(sale, modelForm(sale),
-                currentUser()));
+            return ok(views.html.sales.edit.render(sale, modelForm(sale),
+                    currentUser()));
+        });
     }
 
     /**
@@ -94,31 +114,33 @@ public class SalesController extends GBController {
      * @return redirect to sale or renders sale form with validation errors
      */
     @Security.Authenticated(Secured.class)
-    public final Result postEdit(final int id) {
-        Sale sale = Sale.findById(id);
-        Form<Sale> saleForm = modelForm(Sale.class);
+    public final CompletionStage<Result> postEdit(final int id) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(id);
+            Form<Sale> saleForm = modelForm(Sale.class);
 
-        if (saleForm.hasErrors()) {
-            return badRequest(views.html.sales.edit.render(sale, saleForm,
-                    currentUser()));
-        } else {
-            sale.name = formParam("name");
-            sale.setFormattedStartDate(formParam("startDate"));
-            sale.setFormattedEndDate(formParam("endDate"));
-            if (formParam("close") != null) {
-                sale.close();
-                flash("warning", "This sale has been closed, and can no longer"
-                        + " be edited");
-            }
-            if (!sale.getEndDate().before(sale.getStartDate())) {
-                sale.save();
-                return redirect("/sales/" + Integer.toString(sale.id));
-            } else {
-                flash("error", "The end date can't be before the start date");
+            if (saleForm.hasErrors()) {
                 return badRequest(views.html.sales.edit.render(sale, saleForm,
                         currentUser()));
+            } else {
+                sale.name = formParam("name");
+                sale.setFormattedStartDate(formParam("startDate"));
+                sale.setFormattedEndDate(formParam("endDate"));
+                if (formParam("close") != null) {
+                    sale.close();
+                    flash("warning", "This sale has been closed, and can no longer"
+                            + " be edited");
+                }
+                if (!sale.getEndDate().before(sale.getStartDate())) {
+                    sale.save();
+                    return redirect("/sales/" + Integer.toString(sale.id));
+                } else {
+                    flash("error", "The end date can't be before the start date");
+                    return badRequest(views.html.sales.edit.render(sale, saleForm,
+                            currentUser()));
+                }
             }
-        }
+        });
     }
 
     /**
@@ -128,9 +150,13 @@ public class SalesController extends GBController {
      * @return a webpage showing the items
      */
     @Security.Authenticated(Secured.class)
-    public final Result show(final int id) {
-        Sale sale = Sale.findById(id);
-        return ok(views.html.sales.show.render(sale, currentUser()));
+    public final CompletionStage<Result> show(final int id) {
+        return withDatabase(() -> {
+            return cachedForSale(id, "show:" + Secured.getCurrentUsername(ctx()), () -> {
+                Sale sale = Sale.findById(id);
+                return ok(views.html.sales.show.render(sale, currentUser()));
+            });
+        });
     }
 
     /**
@@ -140,9 +166,26 @@ public class SalesController extends GBController {
      * @return stats JSON
      */
     @Security.Authenticated(Secured.class)
-    public final Result stats(final int id) {
-        Sale sale = Sale.findById(id);
-        return ok(sale.statsJson());
+    public final CompletionStage<Result> stats(final int id) {
+        return withDatabase(() -> cachedForSale(id, "stats",
+                () -> ok(SaleStats.forSale(id).toJson())));
+    }
+
+    /**
+     * Rebuilds the daily stats rollup for a sale from its transactions.
+     *
+     * @param id id of the sale
+     * @return redirect to the sale dashboard
+     */
+    @Security.Authenticated(Secured.class)
+    public final CompletionStage<Result> rebuildStats(final int id) {
+        return withDatabase(() -> {
+            if (currentUser().can("rebuildStats")) {
+                SaleDailyRollup.rebuild(id);
+                flash("success", "Sale stats rebuilt.");
+            }
+            return redirect("/sales/" + Integer.toString(id));
+        });
     }
 
     /**
@@ -152,12 +195,43 @@ public class SalesController extends GBController {
      * @return a webpage showing the items
      */
     @Security.Authenticated(Secured.class)
-    public final Result items(final int id) {
-        Sale sale = Sale.findById(id);
-        List<Item> queryItems = queryItems(Item.class, sale.findItems(),
-                "name", "name", sale.items);
-        return ok(views.html.sales.items.render(sale, queryItems,
-                queryString(), currentUser()));
+    public final CompletionStage<Result> items(final int id) {
+        return withDatabase(() -> {
+            String variant = "items:" + Secured.getCurrentUsername(ctx()) + ":"
+                    + queryString() + ":" + formParam("after") + ":"
+                    + formParam("before");
+            return cachedForSale(id, variant, () -> {
+                Sale sale = Sale.findById(id);
+                Page<Item> page = queryPage(sale.findItems(), "name", "name",
+                        item -> item.name, item -> item.id);
+                return ok(views.html.sales.items.render(sale, page,
+                        queryString(), currentUser()));
+            });
+        });
+    }
+
+    /**
+     * Autocompletes unpurchased items in a sale for checkout, matching
+     * every word of the query against prefixes of item names and
+     * descriptions.
+     *
+     * @param id id of the sale
+     * @return JSON array of ranked matching items
+     */
+    @Security.Authenticated(Secured.class)
+    public final CompletionStage<Result> searchItems(final int id) {
+        return withDatabase(() -> {
+            int limit = configuration.getInt("garagebuddy.search.limit", 20);
+            ArrayNode hits = Json.newArray();
+            for (ItemSearchIndex.Hit hit : searchIndex.search(id, queryString(), limit)) {
+                hits.addObject()
+                        .put("id", hit.id)
+                        .put("name", hit.name)
+                        .put("price", hit.price)
+                        .put("formattedPrice", Formatter.currency(hit.price));
+            }
+            return ok(hits);
+        });
     }
 
     /**
@@ -167,34 +241,100 @@ public class SalesController extends GBController {
      * @return a webpage showing the financial report
      */
     @Security.Authenticated(Secured.class)
-    public Result reportAll(int id) {
-        Sale sale = Sale.findById(id);
-        List<Transaction> trans = sale.transactions;
+    public CompletionStage<Result> reportAll(int id) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(id);
+            List<Transaction> trans = sale.findReportTransactions();
+
+            return ok(views.html.sales.reportAll.render(sale.name, "All Financial Report", sale, trans, currentUser()));
+        });
+    }
 
-        return ok(views.html.sales.reportAll.render(sale.name, "All Financial Report", sale, trans, currentUser()));
+    public CompletionStage<Result> sellers(int id) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(id);
+            List<User> sellers = sale.findSellers();
+            //Found items that are sold
+            //Find the created by
+            return ok(views.html.sales.sellers.render(sale.name, "Financial Report", sale, sellers, currentUser()));
+            //return null;
+        });
     }
 
-    public Result sellers(int id) {
-        Sale sale = Sale.findById(id);
-        List<User> sellers = sale.findSellers();
-        //Found items that are sold
-        //Find the created by
-        return ok(views.html.sales.sellers.render(sale.name, "Financial Report", sale, sellers, currentUser()));
-        //return null;
+    public CompletionStage<Result> reportBySeller(String email, int id) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(id);
+            List<SqlRow> report = sale.findReport(email, id);
+            Double total = report.isEmpty() ? 0.0 : report.get(0).getDouble("total");
+
+            return ok(views.html.sales.reportBySeller.render(sale.name, "Financial Report", sale, report, total, currentUser()));
+            //return null;
+        });
+    }
+
+    /**
+     * Exports every transaction in a sale with its line items, streamed as
+     * CSV (the default) or NDJSON with ?format=ndjson.
+     *
+     * @param id id of the sale
+     * @return a chunked download of the sale's transactions
+     */
+    @Security.Authenticated(Secured.class)
+    public final Result exportTransactions(final int id) {
+        ReportExporter.Format format = ReportExporter.Format.parse(
+                request().getQueryString("format"));
+        if (format == null) {
+            return badRequest("Format must be csv or ndjson.");
+        }
+        return download("sale-" + id + "-transactions", format,
+                exporter.transactions(id, format));
     }
 
-    public Result reportBySeller(String email, int id) {
-        Sale sale = Sale.findById(id);
-        List<SqlRow> report = sale.findReport(email, id);
-        Double total = sale.reportTotal(email, id);
+    /**
+     * Exports the settlement report for a sale: every sold item by seller
+     * with per-seller subtotals and a grand total, computed in one query
+     * and streamed as CSV (the default) or NDJSON with ?format=ndjson.
+     * Pass ?email= for a single seller's statement.
+     *
+     * @param id id of the sale
+     * @return a chunked download of the settlement report
+     */
+    @Security.Authenticated(Secured.class)
+    public final Result exportSellers(final int id) {
+        ReportExporter.Format format = ReportExporter.Format.parse(
+                request().getQueryString("format"));
+        if (format == null) {
+            return badRequest("Format must be csv or ndjson.");
+        }
+        String email = request().getQueryString("email");
+        if (email != null && email.isEmpty()) {
+            email = null;
+        }
+        return download("sale-" + id + "-settlement", format,
+                exporter.sellerStatements(id, email, format));
+    }
 
-        return ok(views.html.sales.reportBySeller.render(sale.name, "Financial Report", sale, report, total, currentUser()));
-        //return null;
+    /**
+     * Wraps an export stream in a chunked attachment response.
+     *
+     * @param name file name without extension
+     * @param format format of the export
+     * @param body the export's bytes
+     * @return the download response
+     */
+    private Result download(final String name, final ReportExporter.Format format,
+                            final akka.stream.javadsl.Source<akka.util.ByteString, ?> body) {
+        return ok().chunked(body).as(format.contentType)
+                .withHeader(CONTENT_DISPOSITION, "attachment; filename=\""
+                        + name + "." + format.extension + "\"");
     }
 
-    public Result report(int id) {
-        Sale sale = Sale.findById(id);
-        return ok(views.html.sales.report.render(sale, sale.transactions, currentUser()));
+    public CompletionStage<Result> report(int id) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(id);
+            return ok(views.html.sales.report.render(sale, sale.findReportTransactions(),
+                    currentUser()));
+        });
     }
 
     /**
@@ -204,14 +344,16 @@ public class SalesController extends GBController {
      * @return a page showing the confirmation
      */
     @Security.Authenticated(Secured.class)
-    public final Result sell(final int id) {
-        Sale sale = Sale.findById(id);
-        if (sale.isClosed()) {
-            flash("warning", "This sale has been closed, and can no"
-                    + " longer be edited");
-        }
+    public final CompletionStage<Result> sell(final int id) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(id);
+            if (sale.isClosed()) {
+                flash("warning", "This sale has been closed, and can no"
+                        + " longer be edited");
+            }
 
-        return ok(views.html.sales.sell.render(sale, currentUser()));
+            return ok(views.html.sales.sell.render(sale, currentUser()));
+        });
     }
 
     /**
@@ -221,9 +363,11 @@ public class SalesController extends GBController {
      * @return a page showing the confirmation
      */
     @Security.Authenticated(Secured.class)
-    public final Result delete(final int id) {
-        Sale sale = Sale.findById(id);
-        return ok(views.html.sales.delete.render(sale, currentUser()));
+    public final CompletionStage<Result> delete(final int id) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(id);
+            return ok(views.html.sales.delete.render(sale, currentUser()));
+        });
     }
 
     /**
@@ -233,11 +377,14 @@ public class SalesController extends GBController {
      * @return a redirect to sales index
      */
     @Security.Authenticated(Secured.class)
-    public final Result postDelete(final int id) {
-        Sale sale = Sale.findById(id);
-        sale.findItems().delete();
-        sale.delete();
-        return redirect("/sales");
+    public final CompletionStage<Result> postDelete(final int id) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(id);
+            sale.findItems().delete();
+            sale.delete();
+            searchIndex.invalidate(id);
+            return redirect("/sales");
+        });
     }
 
     /**
@@ -247,11 +394,14 @@ public class SalesController extends GBController {
      * @return a page of print tags for a given set of items
      */
     @Security.Authenticated(Secured.class)
-    public final Result tags(final int id) {
-        Sale sale = Sale.findById(id);
-        List<Item> tagItems = queryItems(Item.class, sale.findItems(), "name",
-                "name", sale.items);
-        return ok(views.html.sales.tags.render(tagItems, currentUser()));
+    public final CompletionStage<Result> tags(final int id) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(id);
+            Page<Item> page = queryPage(sale.findItems(), "name", "name",
+                    item -> item.name, item -> item.id);
+            return ok(views.html.sales.tags.render(page.items, currentUser(),
+                    page.nextCursor));
+        });
     }
 
     /**
@@ -262,11 +412,13 @@ public class SalesController extends GBController {
      * @return a page of all the users associated with a sale
      */
     @Security.Authenticated(Secured.class)
-    public final Result members(final int id) {
-        Sale sale = Sale.findById(id);
-        List<String> members = new ArrayList<String>(sale.getUsers().keySet());
-        return ok(views.html.sales.members.render(sale, members,
-                currentUser()));
+    public final CompletionStage<Result> members(final int id) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(id);
+            List<String> members = new ArrayList<String>(sale.getUsers().keySet());
+            return ok(views.html.sales.members.render(sale, members,
+                    currentUser()));
+        });
     }
 
     /**
@@ -279,11 +431,13 @@ public class SalesController extends GBController {
      * @return a page where a user can add members to a sale
      */
     @Security.Authenticated(Secured.class)
-    public final Result addMember(final int id) {
-        Sale sale = Sale.findById(id);
-        List<String> roles = Sale.getUnrestrictedRoles();
-        return ok(views.html.sales.addMember.render(sale, roles,
-                currentUser()));
+    public final CompletionStage<Result> addMember(final int id) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(id);
+            List<String> roles = Sale.getUnrestrictedRoles();
+            return ok(views.html.sales.addMember.render(sale, roles,
+                    currentUser()));
+        });
     }
 
 
@@ -297,29 +451,31 @@ public class SalesController extends GBController {
      * @return redirect to sale items or render item form with errors
      */
     @Security.Authenticated(Secured.class)
-    public final Result postAddMember(final int id) {
-        Sale sale = Sale.findById(id);
-        User user = User.findByEmail(formParams().get("email"));
-        List<String> members = new ArrayList<String>(sale.getUsers().keySet());
-        List<String> roles = Sale.getUnrestrictedRoles();
-        Map<String, Sale.Role> roleMap = Sale.getRoleMap();
-
-        if (user == null) {
-            flash("error", "Your friend doesn't have an account with"
-                    + " GarageBuddy.");
-            return badRequest(views.html.sales.addMember.render(sale, roles,
-                    currentUser()));
-        } else if (members.contains(user.email)) {
-            flash("error", "This user is already a member of the sale!");
-            return badRequest(views.html.sales.addMember.render(sale, roles,
-                    currentUser()));
-        } else {
-            String role = formParams().get("role");
-            sale.addUser(user.email, roleMap.get(role));
-            sale.save();
-            return redirect("/sales/" + Integer.toString(sale.id)
-                    + "/members");
-        }
+    public final CompletionStage<Result> postAddMember(final int id) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(id);
+            User user = User.findByEmail(formParams().get("email"));
+            List<String> members = new ArrayList<String>(sale.getUsers().keySet());
+            List<String> roles = Sale.getUnrestrictedRoles();
+            Map<String, Sale.Role> roleMap = Sale.getRoleMap();
+
+            if (user == null) {
+                flash("error", "Your friend doesn't have an account with"
+                        + " GarageBuddy.");
+                return badRequest(views.html.sales.addMember.render(sale, roles,
+                        currentUser()));
+            } else if (members.contains(user.email)) {
+                flash("error", "This user is already a member of the sale!");
+                return badRequest(views.html.sales.addMember.render(sale, roles,
+                        currentUser()));
+            } else {
+                String role = formParams().get("role");
+                sale.addUser(user.email, roleMap.get(role));
+                sale.save();
+                return redirect("/sales/" + Integer.toString(sale.id)
+                        + "/members");
+            }
+        });
     }
 
 
@@ -1,5 +1,6 @@
 package controllers;
 
+import lib.RequestContext;
 import play.mvc.Http;
 import play.mvc.Http.*;
 import play.mvc.Result;
@@ -35,12 +36,12 @@ public class Secured extends Security.Authenticator{
     }
 
     /**
-     * Retrieves a user object for the given context
+     * Retrieves a user object for the given context, looked up once per request
      * @param ctx The context
      * @return a user for the given context
      */
     public static User getUser(Context ctx) {
-        return User.findByEmail(ctx.session().get("email"));
+        return RequestContext.of(ctx).currentUser();
     }
 
     /**
@@ -1,16 +1,21 @@
 package controllers;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import lib.GBController;
 import play.data.Form;
-import play.libs.mailer.Email;
+import play.libs.Json;
 import play.mvc.*;
 import models.*;
 import views.html.transactions.*;
 
-import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Manages loading of pages related to transactions.
@@ -26,15 +31,17 @@ public class TransactionsController extends GBController {
      * @return a webpage showing transactions
      */
     @Security.Authenticated(Secured.class)
-    public final Result index(final int saleId) {
-        Sale sale = Sale.findById(saleId);
-        List<String> parameters = new ArrayList<>(Arrays.asList("id",
-                "customer_name", "customer_email"));
-        List<Transaction> transactions = queryItems(Transaction.class,
-                sale.findTransactions(), parameters, "created_at",
-                sale.transactions);
-        return ok(views.html.transactions.index.render(sale, transactions,
-                queryString(), currentUser()));
+    public final CompletionStage<Result> index(final int saleId) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(saleId);
+            List<String> parameters = new ArrayList<>(Arrays.asList("id",
+                    "customer_name", "customer_email"));
+            List<Transaction> transactions = queryItems(Transaction.class,
+                    sale.findTransactions(), parameters, "created_at",
+                    sale.transactions);
+            return ok(views.html.transactions.index.render(sale, transactions,
+                    queryString(), currentUser()));
+        });
     }
 
     /**
@@ -44,10 +51,12 @@ public class TransactionsController extends GBController {
      * @return a webpage showing the transaction form
      */
     @Security.Authenticated(Secured.class)
-    public final Result create(final int saleId) {
-        Sale sale = Sale.findById(saleId);
-        return ok(views.html.transactions.create.render(sale,
-                emptyModelForm(Transaction.class), currentUser()));
+    public final CompletionStage<Result> create(final int saleId) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(saleId);
+            return ok(views.html.transactions.create.render(sale,
+                    emptyModelForm(Transaction.class), currentUser()));
+        });
     }
 
     /**
@@ -61,18 +70,20 @@ public class TransactionsController extends GBController {
      * @return a redirect to the transaction's add item page
      */
     @Security.Authenticated(Secured.class)
-    public final Result postCreate(final int saleId) {
-        Sale sale = Sale.findById(saleId);
-        Form<Transaction> transactionForm = modelForm(Transaction.class);
-        if (transactionForm.hasErrors()) {
-            return badRequest(views.html.transactions.create.render(sale,
-                    transactionForm, currentUser()));
-        } else {
-            Transaction transaction = new Transaction(sale, currentUser());
-            transaction.customerName = transactionForm.get().customerName;
-            transaction.save();
-            return redirect("/transactions/" + transaction.id + "/items");
-        }
+    public final CompletionStage<Result> postCreate(final int saleId) {
+        return withDatabase(() -> {
+            Sale sale = Sale.findById(saleId);
+            Form<Transaction> transactionForm = modelForm(Transaction.class);
+            if (transactionForm.hasErrors()) {
+                return badRequest(views.html.transactions.create.render(sale,
+                        transactionForm, currentUser()));
+            } else {
+                Transaction transaction = new Transaction(sale, currentUser());
+                transaction.customerName = transactionForm.get().customerName;
+                transaction.save();
+                return redirect("/transactions/" + transaction.id + "/items");
+            }
+        });
     }
 
     /**
@@ -82,10 +93,12 @@ public class TransactionsController extends GBController {
      * @return a webpage showing the transaction's details
      */
     @Security.Authenticated(Secured.class)
-    public final Result show(final int id) {
-        Transaction transaction = Transaction.findById(id);
-        return ok(views.html.transactions.show.render(transaction,
-                transaction.items, currentUser()));
+    public final CompletionStage<Result> show(final int id) {
+        return withDatabase(() -> {
+            Transaction transaction = Transaction.findById(id);
+            return ok(views.html.transactions.show.render(transaction,
+                    transaction.items, currentUser()));
+        });
     }
 
     /**
@@ -95,10 +108,12 @@ public class TransactionsController extends GBController {
      * @return a webpage showing a receipt for the transaction
      */
     @Security.Authenticated(Secured.class)
-    public final Result receipt(final int id) {
-        Transaction transaction = Transaction.findById(id);
-        return ok(views.html.transactions.receipt.render(transaction,
-                transaction.items, currentUser()));
+    public final CompletionStage<Result> receipt(final int id) {
+        return withDatabase(() -> {
+            Transaction transaction = Transaction.findById(id);
+            return ok(views.html.transactions.receipt.render(transaction,
+                    transaction.items, currentUser()));
+        });
     }
 
     /**
@@ -108,37 +123,15 @@ public class TransactionsController extends GBController {
      * @return a webpage showing a receipt for the transaction
      */
     @Security.Authenticated(Secured.class)
-    public final Result emailReceipt(final int id) {
-        Transaction trans = Transaction.findById(id);
-        LocalDateTime generated = LocalDateTime.now();
-        String subjline = "GarageBuddy Sale '" + trans.sale.name + "' Transaction " + trans.id;
-        String bodyhead = "Transaction ID: " + trans.id + "\n";
-        String body1 = trans.seller.name  + " sold items to " + trans.customerName + ".\n";
-        StringBuilder items = new StringBuilder();
-        for (Item i : trans.items) {
-            items.append("\t" + i.name + "\t\t$" + i.price + "\n");
-        }
-        String body2 = items.toString();
-        String body3 = "Total: " + trans.numItems + " items for $" + trans.value + "\n";
-        String bodyfoot = "\nThanks for using GarageBuddy!\n" + "message generated at " + generated.toString() + "\n";
-
-        // build email
-        Email em = new Email()
-                .setSubject(subjline)
-                .setFrom("GarageBuddy <noreply@garagebuddy.io>")
-                .addTo(trans.seller.name + " <" + trans.seller.email + ">")
-                .setBodyText(bodyhead + body1 + body2 + body3 + bodyfoot);
-
-        if (trans.customer != null) {
-            em.addTo(trans.customer.name + " <" + trans.customer.email + ">");
-        }
-
-        // whoosh!
-        mailerClient.send(em);
-
-        flash("success", "Email receipt sent successfully.");
-        return ok(views.html.transactions.show.render(trans,
-                trans.items, currentUser()));
+    public final CompletionStage<Result> emailReceipt(final int id) {
+        return withDatabase(() -> {
+            Transaction trans = Transaction.findById(id);
+            new TransactionEmail(trans).mailOut();
+
+            flash("success", "Email receipt is on its way.");
+            return ok(views.html.transactions.show.render(trans,
+                    trans.items, currentUser()));
+        });
     }
 
     /**
@@ -149,12 +142,14 @@ public class TransactionsController extends GBController {
      * @return a webpage with a added and available items
      */
     @Security.Authenticated(Secured.class)
-    public final Result items(final int id) {
-        Transaction transaction = Transaction.findById(id);
-        Form<Item> itemForm = modelForm(Item.class);
-        return ok(views.html.transactions.items.render(transaction, itemForm,
-                transaction.items, transaction.sale.findUnpurchasedItems()
-                        .findList(), currentUser()));
+    public final CompletionStage<Result> items(final int id) {
+        return withDatabase(() -> {
+            Transaction transaction = Transaction.findById(id);
+            Form<Item> itemForm = modelForm(Item.class);
+            return ok(views.html.transactions.items.render(transaction, itemForm,
+                    transaction.items, transaction.sale.findUnpurchasedItems()
+                            .findList(), currentUser()));
+        });
     }
 
     /**
@@ -165,25 +160,81 @@ public class TransactionsController extends GBController {
      * @return a redirect to the list of items to add
      */
     @Security.Authenticated(Secured.class)
-    public final Result addItem(final int id, final int itemId) {
-        Transaction transaction = Transaction.findById(id);
-        Item item = Item.findById(itemId);
-        boolean soldForPresent = formParam("soldFor") != null;
-        if (soldForPresent && Double.parseDouble(formParam("soldFor")) >= item.minprice) {
-            item.soldFor = Double.parseDouble(formParam("soldFor"));
-            item.price = item.soldFor;
-            item.save();
-            transaction.addItem(item, true);
-        } else if (soldForPresent) {
-            flash("error", "Cannot sell item for less than " +
-                    item.formattedMinprice() + ".");
-
-        } else {
-            item.soldFor = item.price;
-            item.save();
-            transaction.addItem(item, true);
-        }
-        return redirect("/transactions/" + transaction.id + "/items");
+    public final CompletionStage<Result> addItem(final int id, final int itemId) {
+        return withDatabase(() -> {
+            Transaction transaction = Transaction.findById(id);
+            Item item = Item.findById(itemId);
+            boolean soldForPresent = formParam("soldFor") != null;
+            if (soldForPresent && Double.parseDouble(formParam("soldFor")) < item.minprice) {
+                flash("error", "Cannot sell item for less than " +
+                        item.formattedMinprice() + ".");
+                return redirect("/transactions/" + transaction.id + "/items");
+            }
+
+            if (soldForPresent) {
+                item.soldFor = Double.parseDouble(formParam("soldFor"));
+                item.price = item.soldFor;
+            } else {
+                item.soldFor = item.price;
+            }
+
+            try {
+                transaction.addItem(item, true);
+                searchIndex.markPurchased(transaction.sale.id,
+                        Arrays.asList(item.id), true);
+            } catch (Item.ItemPurchasedException e) {
+                flash("error", item.name + " has already been sold.");
+            }
+            return redirect("/transactions/" + transaction.id + "/items");
+        });
+    }
+
+    /**
+     * Sells several items on the specified transaction at once. Expects a
+     * JSON body of the form {"items": [{"id": 1, "soldFor": 2.50}, ...]},
+     * where soldFor is optional.
+     *
+     * @param id id of the transaction to modify
+     * @return JSON listing the sold items, rejected items, and new totals
+     */
+    @Security.Authenticated(Secured.class)
+    public final CompletionStage<Result> addItems(final int id) {
+        return withDatabase(() -> {
+            Transaction transaction = Transaction.findById(id);
+            JsonNode json = request().body().asJson();
+            if (json == null || !json.path("items").isArray()) {
+                return badRequest(Json.newObject().put("error",
+                        "Expected a JSON body with an items array."));
+            }
+
+            List<Integer> itemIds = new ArrayList<>();
+            Map<Integer, Double> soldFor = new HashMap<>();
+            for (JsonNode entry : json.get("items")) {
+                int itemId = entry.path("id").asInt();
+                itemIds.add(itemId);
+                if (entry.hasNonNull("soldFor")) {
+                    soldFor.put(itemId, entry.get("soldFor").asDouble());
+                }
+            }
+
+            Transaction.Checkout checkout = transaction.sellItems(itemIds, soldFor);
+            searchIndex.markPurchased(transaction.sale.id, checkout.sold, true);
+
+            ObjectNode result = Json.newObject();
+            result.put("transaction", transaction.id);
+            result.put("numItems", transaction.numItems);
+            result.put("value", transaction.value);
+            ArrayNode sold = result.putArray("sold");
+            for (Integer itemId : checkout.sold) {
+                sold.add(itemId);
+            }
+            ArrayNode rejected = result.putArray("rejected");
+            for (Map.Entry<Integer, String> entry : checkout.rejected.entrySet()) {
+                rejected.addObject().put("id", entry.getKey())
+                        .put("reason", entry.getValue());
+            }
+            return ok(result);
+        });
     }
 
     /**
@@ -194,10 +245,14 @@ public class TransactionsController extends GBController {
      * @return a redirect to the list of items to add
      */
     @Security.Authenticated(Secured.class)
-    public final Result removeItem(final int id, final int itemId) {
-        Transaction transaction = Transaction.findById(id);
-        transaction.removeItem(Item.findById(itemId), true);
-        return redirect("/transactions/" + transaction.id + "/items");
+    public final CompletionStage<Result> removeItem(final int id, final int itemId) {
+        return withDatabase(() -> {
+            Transaction transaction = Transaction.findById(id);
+            transaction.removeItem(Item.findById(itemId), true);
+            searchIndex.markPurchased(transaction.sale.id, Arrays.asList(itemId),
+                    false);
+            return redirect("/transactions/" + transaction.id + "/items");
+        });
     }
 
     /**
@@ -207,10 +262,12 @@ public class TransactionsController extends GBController {
      * @return a webpage confirming the deletion
      */
     @Security.Authenticated(Secured.class)
-    public final Result delete(final int id) {
-        Transaction transaction = Transaction.findById(id);
-        return ok(views.html.transactions.delete.render(transaction,
-                currentUser()));
+    public final CompletionStage<Result> delete(final int id) {
+        return withDatabase(() -> {
+            Transaction transaction = Transaction.findById(id);
+            return ok(views.html.transactions.delete.render(transaction,
+                    currentUser()));
+        });
     }
 
     /**
@@ -220,11 +277,14 @@ public class TransactionsController extends GBController {
      * @return a redirect to the transactions index for the sale
      */
     @Security.Authenticated(Secured.class)
-    public final Result postDelete(final int id) {
-        Transaction transaction = Transaction.findById(id);
-        int saleId = transaction.sale.id;
-        transaction.removeItems();
-        transaction.delete();
-        return redirect("/sales/" + saleId + "/transactions");
+    public final CompletionStage<Result> postDelete(final int id) {
+        return withDatabase(() -> {
+            Transaction transaction = Transaction.findById(id);
+            int saleId = transaction.sale.id;
+            transaction.removeItems();
+            searchIndex.invalidate(saleId);
+            transaction.delete();
+            return redirect("/sales/" + saleId + "/transactions");
+        });
     }
 }
@@ -2,9 +2,12 @@ package controllers;
 
 import models.User;
 import lib.GBController;
+import lib.UserCache;
 import play.mvc.*;
 import views.html.users.*;
 
+import java.util.concurrent.CompletionStage;
+
 /**
  * Manages routes for users.
  * @author Dean Papastrat
@@ -15,9 +18,9 @@ public class UsersController extends GBController {
      * @return user index page HTML
      */
     @Security.Authenticated(Secured.class)
-    public final Result index() {
-        return ok(views.html.users.index.render(User.FIND.all(),
-                currentUser()));
+    public final CompletionStage<Result> index() {
+        return withDatabase(() -> ok(views.html.users.index.render(User.FIND.all(),
+                currentUser())));
     }
 
     /**
@@ -25,9 +28,9 @@ public class UsersController extends GBController {
      * @return profile page HTML
      */
     @Security.Authenticated(Secured.class)
-    public final Result profile() {
-        return ok(views.html.users.profile.render(modelForm(currentUser()),
-                currentUser()));
+    public final CompletionStage<Result> profile() {
+        return withDatabase(() -> ok(views.html.users.profile.render(modelForm(currentUser()),
+                currentUser())));
     }
 
     /**
@@ -35,35 +38,46 @@ public class UsersController extends GBController {
      * @return redirect to profile page or renders profile form with errors
      */
     @Security.Authenticated(Secured.class)
-    public final Result postProfile() {
-        if (!currentUser().checkPassword(formParams()
-                .get("currentPassword"))) {
-            flash("error", "Current password is not valid. Please try again.");
-            return redirect("/profile");
-        }
-
-        currentUser().email = formParams().get("email");
-        currentUser().name = formParams().get("name");
-        currentUser().postalCode = formParams().get("postalCode");
-        currentUser().state = formParams().get("state");
-        currentUser().address = formParams().get("address");
-        currentUser().city = formParams().get("city");
+    public final CompletionStage<Result> postProfile() {
+        // Only checking and setting the password run on the password
+        // hashing pool. The session user is a read-only copy without a
+        // password, so load our own to check and change.
+        String oldEmail = Secured.getCurrentUsername(ctx());
+        return orBusy(onDatabase(() -> User.findByEmail(oldEmail)).thenCompose(user ->
+                hashing(() -> {
+                    if (!user.checkPassword(formParams().get("currentPassword"))) {
+                        return false;
+                    }
+                    if (formParams().get("newPassword") != null && !formParams()
+                            .get("newPassword").isEmpty()) {
+                        user.setPassword(formParams().get("newPassword"));
+                    }
+                    return true;
+                }).thenCompose(correct -> onDatabase(() -> {
+                    if (!correct) {
+                        flash("error", "Current password is not valid. Please try again.");
+                        return redirect("/profile");
+                    }
 
-        if (formParams().get("newPassword") != null && !formParams()
-                .get("newPassword").isEmpty()) {
-            currentUser().setPassword(formParams().get("newPassword"));
-        }
+                    user.email = formParams().get("email");
+                    user.name = formParams().get("name");
+                    user.postalCode = formParams().get("postalCode");
+                    user.state = formParams().get("state");
+                    user.address = formParams().get("address");
+                    user.city = formParams().get("city");
 
-        play.data.Form<User> userForm = modelForm(currentUser());
+                    play.data.Form<User> userForm = modelForm(user);
 
-        if (!userForm.hasErrors()) {
-            currentUser().update();
-            flash("success", "Profile details saved.");
-            return redirect("/profile");
-        } else {
-            return badRequest(views.html.users.profile.render(userForm,
-                    currentUser()));
-        }
+                    if (!userForm.hasErrors()) {
+                        user.update();
+                        UserCache.invalidate(oldEmail);
+                        flash("success", "Profile details saved.");
+                        return redirect("/profile");
+                    } else {
+                        return badRequest(views.html.users.profile.render(userForm,
+                                currentUser()));
+                    }
+                }))));
     }
 
     /**
@@ -71,8 +85,8 @@ public class UsersController extends GBController {
      * @return delete confirmation page HTML
      */
     @Security.Authenticated(Secured.class)
-    public final Result deleteProfile() {
-        return ok(views.html.users.deleteProfile.render(currentUser()));
+    public final CompletionStage<Result> deleteProfile() {
+        return withDatabase(() -> ok(views.html.users.deleteProfile.render(currentUser())));
     }
 
     /**
@@ -80,9 +94,12 @@ public class UsersController extends GBController {
      * @return redirect to welcome page
      */
     @Security.Authenticated(Secured.class)
-    public final Result postDeleteProfile() {
-        currentUser().delete();
-        return redirect("/logout");
+    public final CompletionStage<Result> postDeleteProfile() {
+        return withDatabase(() -> {
+            User user = User.findByEmail(currentUser().email);
+            user.delete();
+            return redirect("/logout");
+        });
     }
 
     /**
@@ -92,11 +109,14 @@ public class UsersController extends GBController {
      * @return redirect to users index
      */
     @Security.Authenticated(Secured.class)
-    public final Result resetLoginAttempts(final String userEmail) {
-        if (currentUser().can("resetAttempts")) {
-            User user = User.findByEmail(userEmail);
-            user.resetLoginAttempts();
-        }
-        return redirect("/users");
+    public final CompletionStage<Result> resetLoginAttempts(final String userEmail) {
+        return withDatabase(() -> {
+            if (currentUser().can("resetAttempts")) {
+                User user = User.findByEmail(userEmail);
+                user.resetLoginAttempts();
+                UserCache.invalidate(userEmail);
+            }
+            return redirect("/users");
+        });
     }
 }
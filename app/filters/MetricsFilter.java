@@ -0,0 +1,60 @@
+package filters;
+
+import akka.stream.Materializer;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import javax.inject.*;
+import play.mvc.*;
+import play.mvc.Http.RequestHeader;
+import play.routing.Router;
+import services.RequestMetrics;
+
+/**
+ * Records the latency and status of every request against its route
+ * pattern from conf/routes, and tracks requests in flight. The timing
+ * covers the action up to the response headers; streamed bodies keep
+ * flowing after it ends. It's added to the application's list of filters
+ * by the {@link Filters} class.
+ */
+@Singleton
+public class MetricsFilter extends Filter {
+
+    private final RequestMetrics metrics;
+
+    /**
+     * @param mat This object is needed to handle streaming of requests
+     * and responses.
+     * @param metrics Where request metrics are recorded.
+     */
+    @Inject
+    public MetricsFilter(Materializer mat, RequestMetrics metrics) {
+        super(mat);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CompletionStage<Result> apply(
+        Function<RequestHeader, CompletionStage<Result>> next,
+        RequestHeader requestHeader) {
+
+        long start = System.nanoTime();
+        String method = requestHeader.method();
+        String pattern = requestHeader.tags().get(Router.Tags.ROUTE_PATTERN);
+        metrics.started();
+
+        CompletionStage<Result> result;
+        try {
+            result = next.apply(requestHeader);
+        } catch (RuntimeException e) {
+            metrics.finished(method, pattern, Http.Status.INTERNAL_SERVER_ERROR,
+                    System.nanoTime() - start);
+            throw e;
+        }
+
+        // Runs on whichever thread completes the result; no executor hop.
+        return result.whenComplete((response, error) -> metrics.finished(method, pattern,
+                response != null ? response.status() : Http.Status.INTERNAL_SERVER_ERROR,
+                System.nanoTime() - start));
+    }
+
+}
@@ -0,0 +1,156 @@
+package lib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads delimited records (CSV or TSV) one at a time from a character
+ * stream, so a file of any size is parsed in a fixed amount of memory.
+ * Fields may be double-quoted, with "" for a literal quote, and quoted
+ * fields may span lines.
+ *
+ * @author Dean Papastrat
+ */
+public class CsvReader implements Closeable {
+
+    /**
+     * Longest field accepted, so one malformed quote can't buffer the rest
+     * of the stream.
+     */
+    private static final int MAX_FIELD_LENGTH = 64 * 1024;
+
+    private final Reader in;
+    private final char delimiter;
+    private final char[] buffer = new char[8192];
+    private int position = 0;
+    private int limit = 0;
+    private int line = 1;
+    private int recordLine = 1;
+
+    /**
+     * Creates a reader.
+     *
+     * @param in stream to read
+     * @param delimiter field separator, ',' for CSV or '\t' for TSV
+     */
+    public CsvReader(Reader in, char delimiter) {
+        this.in = in;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * @return the line on which the last record returned by
+     * {@link #next()} started, counting from 1
+     */
+    public int lineNumber() {
+        return recordLine;
+    }
+
+    /**
+     * Reads the next record. Blank lines are skipped.
+     *
+     * @return the record's fields, or null at the end of the stream
+     * @throws IOException if the stream can't be read or a field is malformed
+     */
+    public List<String> next() throws IOException {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        boolean started = false;
+        recordLine = line;
+
+        int c;
+        while ((c = read()) != -1) {
+            if (quoted) {
+                if (c == '"') {
+                    if (peek() == '"') {
+                        read();
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    if (c == '\n') {
+                        line++;
+                    }
+                    append(field, (char) c);
+                }
+            } else if (c == '"' && field.length() == 0 && !wasQuoted) {
+                quoted = true;
+                wasQuoted = true;
+                started = true;
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+                wasQuoted = false;
+                started = true;
+            } else if (c == '\r' || c == '\n') {
+                if (c == '\r' && peek() == '\n') {
+                    read();
+                }
+                line++;
+                if (started || field.length() > 0) {
+                    fields.add(field.toString());
+                    return fields;
+                }
+                recordLine = line;
+            } else {
+                append(field, (char) c);
+                started = true;
+            }
+        }
+
+        if (quoted) {
+            throw new IOException("Unterminated quoted field starting on line " + recordLine);
+        }
+        if (started || field.length() > 0) {
+            fields.add(field.toString());
+            return fields;
+        }
+        return null;
+    }
+
+    private void append(StringBuilder field, char c) throws IOException {
+        if (field.length() >= MAX_FIELD_LENGTH) {
+            throw new IOException("Field on line " + recordLine + " is longer than "
+                    + MAX_FIELD_LENGTH + " characters");
+        }
+        field.append(c);
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private boolean fill() throws IOException {
+        int read;
+        do {
+            read = in.read(buffer, 0, buffer.length);
+        } while (read == 0);
+        if (read < 0) {
+            return false;
+        }
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,57 @@
+package lib;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes CSV records, quoting fields that contain a comma, quote or line
+ * break. Nothing is buffered beyond the underlying writer.
+ *
+ * @author Dean Papastrat
+ */
+public class CsvWriter {
+
+    private final Writer out;
+
+    /**
+     * Creates a writer.
+     *
+     * @param out where records are written
+     */
+    public CsvWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes one record followed by CRLF. Nulls are written as empty fields.
+     *
+     * @param fields the record's fields
+     * @throws IOException if the writer fails
+     */
+    public void write(Object... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            if (fields[i] != null) {
+                out.write(escape(fields[i].toString()));
+            }
+        }
+        out.write("\r\n");
+    }
+
+    /**
+     * Quotes a field if it needs it.
+     *
+     * @param field the field's text
+     * @return the field as it should appear in a record
+     */
+    public static String escape(String field) {
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        return quote ? "\"" + field.replace("\"", "\"\"") + "\"" : field;
+    }
+}
@@ -3,17 +3,29 @@ package lib;
 import com.avaje.ebean.ExpressionList;
 import com.avaje.ebean.Model;
 import models.User;
-import controllers.Secured;
+import play.Configuration;
 import play.Logger;
 import play.data.DynamicForm;
 import play.data.FormFactory;
+import play.cache.CacheApi;
 import play.libs.mailer.MailerClient;
+import play.mvc.Result;
+import services.DatabaseExecutor;
+import services.ItemSearchIndex;
+import services.PasswordHasher;
 
 import javax.inject.Inject;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 
 /**
  * A collection of common methods for use in GarageBuddy controllers
@@ -21,6 +33,17 @@ import java.util.List;
  */
 public abstract class GBController extends play.mvc.Controller {
 
+    /**
+     * How long a rendered sale response stays cached, in seconds. Entries are
+     * keyed by sale version, so this only bounds memory held by stale ones.
+     */
+    private static final int SALE_CACHE_SECONDS = 300;
+
+    /**
+     * Page size used when garagebuddy.catalog.pageSize isn't configured.
+     */
+    private static final int DEFAULT_PAGE_SIZE = 100;
+
     /**
      * Provides form factory to all sub-controllers
      */
@@ -34,40 +57,156 @@ public abstract class GBController extends play.mvc.Controller {
     protected MailerClient mailerClient;
 
     /**
-     * Cache for request parameter parsing
+     * Provides the response cache to all sub-controllers
      */
-    private DynamicForm formParams;
+    @Inject
+    protected CacheApi cache;
 
     /**
-     * Determine whether to use cached form params or not
+     * Provides application configuration to all sub-controllers
      */
-    private boolean formParamsLoaded = false;
+    @Inject
+    protected Configuration configuration;
 
     /**
-     * Cached copy of the current user
+     * Provides the in-memory item search index to all sub-controllers
      */
-    private User currentUser;
+    @Inject
+    protected ItemSearchIndex searchIndex;
 
     /**
-     * Retrieves the current authenticated user using the session's context
+     * Provides the password hashing pool to all sub-controllers
+     */
+    @Inject
+    protected PasswordHasher passwordHasher;
+
+    /**
+     * Provides the database pool to all sub-controllers
+     */
+    @Inject
+    protected DatabaseExecutor database;
+
+    /**
+     * Retrieves the current authenticated user, looked up once per request
      * @return current user
      */
     public User currentUser() {
-        if (currentUser == null || !Secured.getCurrentUsername(ctx()).equals(currentUser.email)) {
-            currentUser = Secured.getUser(ctx());
+        return RequestContext.of(ctx()).currentUser();
+    }
+
+    /**
+     * Runs a password hash or check, and nothing else, on the password
+     * hashing pool. If the pool is saturated the returned stage fails with
+     * a RejectedExecutionException, which {@link #orBusy} answers with 503.
+     *
+     * @param work the hashing work
+     * @param <T> what the work produces
+     * @return the work's eventual result
+     */
+    public <T> CompletionStage<T> hashing(Supplier<T> work) {
+        try {
+            return passwordHasher.run(work);
+        } catch (RejectedExecutionException e) {
+            return rejected(e);
         }
-        return currentUser;
     }
 
     /**
-     * Creates a dynamic form to access attributes of non-model associated forms
+     * Runs work that queries or updates the database on the database pool,
+     * failing the returned stage like {@link #hashing} if it is saturated.
+     *
+     * @param work the database work
+     * @param <T> what the work produces
+     * @return the work's eventual result
+     */
+    public <T> CompletionStage<T> onDatabase(Supplier<T> work) {
+        try {
+            return database.run(work);
+        } catch (RejectedExecutionException e) {
+            return rejected(e);
+        }
+    }
+
+    /**
+     * Answers 503 if any step of an action was turned away by a saturated
+     * pool.
+     *
+     * @param action the action's eventual result
+     * @return the same result, or 503 if a pool rejected the action
+     */
+    public CompletionStage<Result> orBusy(CompletionStage<Result> action) {
+        return action.exceptionally(e -> {
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause instanceof RejectedExecutionException) {
+                return busy();
+            }
+            throw e instanceof CompletionException ? (CompletionException) e
+                    : new CompletionException(e);
+        });
+    }
+
+    /**
+     * Runs an action that queries or updates the database on the database
+     * pool rather than Play's default dispatcher, answering 503 if the pool
+     * is saturated. Views lazy-load relations, so actions render there too.
+     *
+     * @param action the action
+     * @return the action's eventual result
+     */
+    public CompletionStage<Result> withDatabase(Supplier<Result> action) {
+        try {
+            return database.run(action);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(busy());
+        }
+    }
+
+    private static <T> CompletionStage<T> rejected(RejectedExecutionException e) {
+        CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+    }
+
+    private static Result busy() {
+        return status(SERVICE_UNAVAILABLE, "GarageBuddy is busy right now. "
+                + "Please try again in a moment.")
+                .withHeader(RETRY_AFTER, "5");
+    }
+
+    /**
+     * Serves a response about a sale from the cache while the sale is
+     * unchanged, and answers matching conditional GETs with 304 without
+     * rendering at all. Responses carrying a flash message are never cached.
+     *
+     * @param saleId id of the sale the response is about
+     * @param variant identifies the response, e.g. the page, user and query
+     * @param render renders the response on a cache miss
+     * @return the cached, freshly rendered, or not modified response
+     */
+    public Result cachedForSale(int saleId, String variant, Supplier<Result> render) {
+        if (!ctx().flash().isEmpty()) {
+            return render.get();
+        }
+
+        long version = SaleVersions.current(saleId);
+        String etag = SaleVersions.etag(saleId, version, variant);
+        if (etag.equals(request().getHeader(IF_NONE_MATCH))) {
+            return status(NOT_MODIFIED).withHeader(ETAG, etag);
+        }
+
+        Result result = cache.getOrElse(SaleVersions.key(saleId, version, variant),
+                render::get, SALE_CACHE_SECONDS);
+        return result.withHeader(ETAG, etag)
+                .withHeader(CACHE_CONTROL, "private, no-cache");
+    }
+
+    /**
+     * Creates a dynamic form to access attributes of non-model associated
+     * forms; the request is only bound the first time this is called
      * @return a dynamic form get attributes from
      */
     public DynamicForm formParams() {
-        if (!formParamsLoaded) {
-            formParams = formFactory.form().bindFromRequest();
-        }
-        return formParams;
+        return RequestContext.of(ctx()).formParams(formFactory);
     }
 
     /**
@@ -101,7 +240,28 @@ public abstract class GBController extends play.mvc.Controller {
             return defaultItems;
         }
 
-        //ExpressionList<T> originalQuery = query;
+        List<T> result = search(query, parameters).setOrderBy(sort).findList();
+
+        if (result.size() == 0 && parameters.contains("id")) {
+            Model.Finder<String, T> finder = new Model.Finder(klass);
+            result = finder.where().idEq(Integer.parseInt(queryString())).findList();
+        }
+
+        return result;
+    }
+
+    /**
+     * Filters a query down to rows matching the search query, if any
+     *
+     * @param query an expression list for a given model
+     * @param parameters a list of fields to search for the query value
+     * @param <T> a model object
+     * @return the filtered expression list
+     */
+    private <T extends Model> ExpressionList<T> search(ExpressionList<T> query, List<String> parameters) {
+        if (queryString() == null) {
+            return query;
+        }
 
         for (int i = 0; i < parameters.size(); i++) {
             if (i != 0) {
@@ -112,15 +272,36 @@ public abstract class GBController extends play.mvc.Controller {
                 query = query.icontains(parameters.get(i), queryString());
             }
         }
+        return query;
+    }
 
-        List<T> result = query.setOrderBy(sort).findList();
-
-        if (result.size() == 0 && parameters.contains("id")) {
-            Model.Finder<String, T> finder = new Model.Finder(klass);
-            result = finder.where().idEq(Integer.parseInt(queryString())).findList();
-        }
+    /**
+     * Performs the same search as queryItems, but returns one keyset page of
+     * the results ordered by (sort, id) instead of the whole list. The page
+     * is picked by the "after" and "before" cursor params.
+     *
+     * @param query an expression list for a given model
+     * @param parameter a field to search for the query value
+     * @param sort a text field to sort by
+     * @param sortValue reads the sort field from a row, to build cursors
+     * @param idValue reads the id from a row, to build cursors
+     * @param <T> a model object
+     * @return one page of matching items
+     */
+    public <T extends Model> Page<T> queryPage(ExpressionList<T> query, String parameter, String sort,
+                                               Function<T, String> sortValue, ToIntFunction<T> idValue) {
+        List<String> parameters = new ArrayList<>();
+        parameters.add(parameter);
+        return Page.fetch(search(query, parameters), sort, formParam("after"),
+                formParam("before"), pageSize(), sortValue, idValue);
+    }
 
-        return result;
+    /**
+     * Gets the configured number of rows per page
+     * @return rows per page
+     */
+    public int pageSize() {
+        return configuration.getInt("garagebuddy.catalog.pageSize", DEFAULT_PAGE_SIZE);
     }
 
     /**
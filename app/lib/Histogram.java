@@ -0,0 +1,100 @@
+package lib;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with fixed bucket bounds, recorded in
+ * nanoseconds. Counts are kept per bucket and read back cumulatively, the
+ * way Prometheus histograms are exposed.
+ *
+ * @author Dean Papastrat
+ */
+public class Histogram {
+
+    /**
+     * Default bucket upper bounds in seconds, from 1ms to 10s.
+     */
+    public static final double[] DEFAULT_BOUNDS = {
+        0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    private final double[] bounds;
+    private final long[] boundNanos;
+    private final LongAdder[] buckets;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * Creates a histogram with the default bounds.
+     */
+    public Histogram() {
+        this(DEFAULT_BOUNDS);
+    }
+
+    /**
+     * Creates a histogram.
+     *
+     * @param bounds bucket upper bounds in seconds, ascending
+     */
+    public Histogram(double[] bounds) {
+        this.bounds = bounds.clone();
+        this.boundNanos = new long[bounds.length];
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < bounds.length; i++) {
+            boundNanos[i] = (long) (bounds[i] * 1e9);
+        }
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one observation.
+     *
+     * @param nanos the observed duration in nanoseconds
+     */
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < boundNanos.length && nanos > boundNanos[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * @return bucket upper bounds in seconds, not including +Inf
+     */
+    public double[] bounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * @return observations at or under each bound, with the total for +Inf
+     * last
+     */
+    public long[] cumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long running = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            running += buckets[i].sum();
+            counts[i] = running;
+        }
+        return counts;
+    }
+
+    /**
+     * @return number of observations
+     */
+    public long count() {
+        return count.sum();
+    }
+
+    /**
+     * @return sum of all observations in seconds
+     */
+    public double sumSeconds() {
+        return sumNanos.sum() / 1e9;
+    }
+}
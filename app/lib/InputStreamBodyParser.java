@@ -0,0 +1,43 @@
+package lib;
+
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
+import play.libs.F;
+import play.libs.streams.Accumulator;
+import play.mvc.BodyParser;
+import play.mvc.Http;
+import play.mvc.Result;
+import scala.concurrent.duration.Duration;
+
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands a request body to the action as an InputStream that is fed as the
+ * upload arrives, instead of buffering the whole body first. Reads block
+ * until more of the body is received, and the upload is paused while the
+ * action falls behind.
+ *
+ * Use with {@code @BodyParser.Of(InputStreamBodyParser.class)} and read the
+ * stream with {@code request().body().as(InputStream.class)}.
+ *
+ * @author Dean Papastrat
+ */
+public class InputStreamBodyParser implements BodyParser<InputStream> {
+
+    /**
+     * How long a read waits for the client to send more of the body.
+     */
+    private static final long READ_TIMEOUT_SECONDS = 30;
+
+    @Override
+    public Accumulator<ByteString, F.Either<Result, InputStream>> apply(Http.RequestHeader request) {
+        Sink<ByteString, CompletionStage<F.Either<Result, InputStream>>> sink =
+                StreamConverters.asInputStream(Duration.create(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                        .mapMaterializedValue(in -> CompletableFuture.completedFuture(F.Either.Right(in)));
+        return Accumulator.fromSink(sink);
+    }
+}
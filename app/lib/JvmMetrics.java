@@ -0,0 +1,87 @@
+package lib;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Writes JVM memory, memory pool, garbage collection, thread and uptime
+ * metrics in Prometheus text format, read from the platform MXBeans.
+ *
+ * @author Dean Papastrat
+ */
+public final class JvmMetrics {
+
+    private static final String[] NO_LABELS = new String[0];
+
+    /**
+     * Non-instantiable helper.
+     */
+    private JvmMetrics() {
+    }
+
+    /**
+     * Writes every JVM metric.
+     *
+     * @param out where to write
+     */
+    public static void write(StringBuilder out) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        Prometheus.header(out, "jvm_memory_bytes_used", "gauge", "Memory in use, by area.");
+        area(out, "jvm_memory_bytes_used", memory, true);
+        Prometheus.header(out, "jvm_memory_bytes_committed", "gauge",
+                "Memory committed, by area.");
+        area(out, "jvm_memory_bytes_committed", memory, false);
+
+        Prometheus.header(out, "jvm_memory_pool_bytes_used", "gauge",
+                "Memory in use, by memory pool.");
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            Prometheus.sample(out, "jvm_memory_pool_bytes_used",
+                    new String[] {"pool", pool.getName()}, pool.getUsage().getUsed());
+        }
+        Prometheus.header(out, "jvm_memory_pool_bytes_max", "gauge",
+                "Most memory a pool can use, or -1 if unbounded.");
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            Prometheus.sample(out, "jvm_memory_pool_bytes_max",
+                    new String[] {"pool", pool.getName()}, pool.getUsage().getMax());
+        }
+
+        Prometheus.header(out, "jvm_gc_collections_total", "counter",
+                "Garbage collections, by collector.");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            Prometheus.sample(out, "jvm_gc_collections_total",
+                    new String[] {"gc", gc.getName()}, gc.getCollectionCount());
+        }
+        Prometheus.header(out, "jvm_gc_collection_seconds_total", "counter",
+                "Time spent in garbage collection, by collector.");
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            Prometheus.sample(out, "jvm_gc_collection_seconds_total",
+                    new String[] {"gc", gc.getName()}, gc.getCollectionTime() / 1000.0);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Prometheus.header(out, "jvm_threads_current", "gauge", "Live threads.");
+        Prometheus.sample(out, "jvm_threads_current", NO_LABELS, threads.getThreadCount());
+        Prometheus.header(out, "jvm_threads_daemon", "gauge", "Live daemon threads.");
+        Prometheus.sample(out, "jvm_threads_daemon", NO_LABELS, threads.getDaemonThreadCount());
+        Prometheus.header(out, "jvm_threads_peak", "gauge", "Most live threads since start.");
+        Prometheus.sample(out, "jvm_threads_peak", NO_LABELS, threads.getPeakThreadCount());
+
+        Prometheus.header(out, "process_uptime_seconds", "gauge", "Time since the JVM started.");
+        Prometheus.sample(out, "process_uptime_seconds", NO_LABELS,
+                ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0);
+    }
+
+    private static void area(StringBuilder out, String name, MemoryMXBean memory,
+                             boolean used) {
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        MemoryUsage nonHeap = memory.getNonHeapMemoryUsage();
+        Prometheus.sample(out, name, new String[] {"area", "heap"},
+                used ? heap.getUsed() : heap.getCommitted());
+        Prometheus.sample(out, name, new String[] {"area", "nonheap"},
+                used ? nonHeap.getUsed() : nonHeap.getCommitted());
+    }
+}
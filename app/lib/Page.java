@@ -0,0 +1,154 @@
+package lib;
+
+import com.avaje.ebean.ExpressionList;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * One page of a keyset-paginated list, ordered by a text column and id.
+ * Cursors encode the (sort value, id) of the row at a page edge, so
+ * fetching any page is a bounded index range scan no matter how deep it is.
+ *
+ * @param <T> a model object
+ * @author Dean Papastrat
+ */
+public class Page<T> {
+
+    /**
+     * Rows on this page.
+     */
+    public final List<T> items;
+
+    /**
+     * Cursor for the following page, or null if this is the last page.
+     */
+    public final String nextCursor;
+
+    /**
+     * Cursor for the preceding page, or null if this is the first page.
+     */
+    public final String prevCursor;
+
+    /**
+     * Creates a page.
+     *
+     * @param items rows on the page
+     * @param nextCursor cursor for the following page, or null
+     * @param prevCursor cursor for the preceding page, or null
+     */
+    public Page(List<T> items, String nextCursor, String prevCursor) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+        this.prevCursor = prevCursor;
+    }
+
+    /**
+     * @return whether there is a following page
+     */
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    /**
+     * @return whether there is a preceding page
+     */
+    public boolean hasPrev() {
+        return prevCursor != null;
+    }
+
+    /**
+     * Fetches one page of a query ordered by (sort, id).
+     *
+     * @param query query to page through, already filtered
+     * @param sort name of a text column to order by
+     * @param after cursor to start after, or null
+     * @param before cursor to end before, or null; takes priority over after
+     * @param size most rows on the page
+     * @param sortValue reads the sort column's value from a row
+     * @param idValue reads the id from a row
+     * @param <T> a model object
+     * @return the requested page
+     */
+    public static <T> Page<T> fetch(ExpressionList<T> query, String sort, String after,
+                                    String before, int size, Function<T, String> sortValue,
+                                    ToIntFunction<T> idValue) {
+        Object[] beforeKey = decodeCursor(before);
+        Object[] afterKey = beforeKey == null ? decodeCursor(after) : null;
+        String key = "(" + sort + ", id)";
+
+        List<T> rows;
+        if (beforeKey != null) {
+            rows = new ArrayList<>(query.raw(key + " < (?, ?)", beforeKey)
+                    .orderBy(sort + " desc, id desc").setMaxRows(size + 1).findList());
+        } else if (afterKey != null) {
+            rows = new ArrayList<>(query.raw(key + " > (?, ?)", afterKey)
+                    .orderBy(sort + " asc, id asc").setMaxRows(size + 1).findList());
+        } else {
+            rows = new ArrayList<>(query.orderBy(sort + " asc, id asc")
+                    .setMaxRows(size + 1).findList());
+        }
+
+        boolean more = rows.size() > size;
+        if (more) {
+            rows.remove(size);
+        }
+        if (beforeKey != null) {
+            Collections.reverse(rows);
+        }
+        if (rows.isEmpty()) {
+            return new Page<>(rows, null, null);
+        }
+
+        String first = encodeCursor(sortValue.apply(rows.get(0)), idValue.applyAsInt(rows.get(0)));
+        T lastRow = rows.get(rows.size() - 1);
+        String last = encodeCursor(sortValue.apply(lastRow), idValue.applyAsInt(lastRow));
+        if (beforeKey != null) {
+            return new Page<>(rows, last, more ? first : null);
+        } else {
+            return new Page<>(rows, more ? last : null, afterKey != null ? first : null);
+        }
+    }
+
+    /**
+     * Encodes a row's position as an opaque, URL-safe cursor.
+     *
+     * @param sortValue the row's sort column value
+     * @param id the row's id
+     * @return a cursor string
+     */
+    public static String encodeCursor(String sortValue, int id) {
+        String raw = id + ":" + (sortValue == null ? "" : sortValue);
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a cursor into its sort value and id.
+     *
+     * @param cursor a cursor from {@link #encodeCursor(String, int)}
+     * @return the sort value and id, or null if the cursor is missing or invalid
+     */
+    static Object[] decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor),
+                    StandardCharsets.UTF_8);
+            int split = raw.indexOf(':');
+            if (split < 0) {
+                return null;
+            }
+            return new Object[] {raw.substring(split + 1),
+                    Integer.parseInt(raw.substring(0, split))};
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
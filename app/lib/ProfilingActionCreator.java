@@ -0,0 +1,97 @@
+package lib;
+
+import play.Configuration;
+import play.Environment;
+import play.Logger;
+import play.http.ActionCreator;
+import play.mvc.Action;
+import play.mvc.Http;
+import play.mvc.Result;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import javax.inject.Inject;
+
+/**
+ * Wraps every action to profile the SQL it runs, outside of production
+ * unless garagebuddy.queries.profile says otherwise. Each profiled response
+ * carries its statement count and database time in headers, and statements
+ * repeated garagebuddy.queries.repeatThreshold times or more are logged as
+ * a likely N+1 with the route that ran them. Also applies the slow query
+ * threshold to the {@link QueryLog}. Play uses this class because it's set
+ * as play.http.actionCreator in conf/application.conf.
+ *
+ * @author Dean Papastrat
+ */
+public class ProfilingActionCreator implements ActionCreator {
+
+    /**
+     * Number of statements the request ran.
+     */
+    public static final String COUNT_HEADER = "X-Query-Count";
+
+    /**
+     * Milliseconds the request spent running statements.
+     */
+    public static final String TIME_HEADER = "X-Query-Time";
+
+    /**
+     * Most runs of any one statement, when it reached the repeat threshold.
+     */
+    public static final String REPEAT_HEADER = "X-Query-Repeated";
+
+    private final boolean profile;
+    private final int repeatThreshold;
+
+    @Inject
+    public ProfilingActionCreator(Configuration configuration, Environment environment) {
+        Boolean profile = configuration.getBoolean("garagebuddy.queries.profile");
+        this.profile = profile != null ? profile : !environment.isProd();
+        this.repeatThreshold = configuration.getInt("garagebuddy.queries.repeatThreshold", 5);
+        Long slowMillis = configuration.getMilliseconds("garagebuddy.queries.slowThreshold");
+        if (slowMillis != null) {
+            QueryLog.configure(slowMillis);
+        }
+    }
+
+    @Override
+    public Action createAction(Http.Request request, Method actionMethod) {
+        if (!profile) {
+            return new Action.Simple() {
+                @Override
+                public CompletionStage<Result> call(Http.Context ctx) {
+                    return delegate.call(ctx);
+                }
+            };
+        }
+        return new Action.Simple() {
+            @Override
+            public CompletionStage<Result> call(Http.Context ctx) {
+                QueryProfile queries = QueryProfile.start(ctx);
+                return delegate.call(ctx).thenApply(result -> report(ctx, queries, result));
+            }
+        };
+    }
+
+    private Result report(Http.Context ctx, QueryProfile queries, Result result) {
+        Result reported = result
+                .withHeader(COUNT_HEADER, Integer.toString(queries.count()))
+                .withHeader(TIME_HEADER, Long.toString(queries.millis()));
+        List<QueryProfile.Statement> repeated = queries.repeated(repeatThreshold);
+        if (repeated.isEmpty()) {
+            return reported;
+        }
+
+        StringBuilder message = new StringBuilder("Possible N+1 in ")
+                .append(QueryProfile.route(ctx)).append(": ")
+                .append(queries.count()).append(" queries in ")
+                .append(queries.millis()).append("ms");
+        for (QueryProfile.Statement statement : repeated) {
+            message.append("\n  ").append(statement.count()).append("x, ")
+                    .append(statement.millis()).append("ms: ").append(statement.sql);
+        }
+        Logger.warn(message.toString());
+        return reported.withHeader(REPEAT_HEADER, Integer.toString(repeated.get(0).count()));
+    }
+}
@@ -0,0 +1,117 @@
+package lib;
+
+/**
+ * Writes metrics in the Prometheus text exposition format.
+ *
+ * @author Dean Papastrat
+ */
+public final class Prometheus {
+
+    /**
+     * Content type of the text exposition format.
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * Non-instantiable helper.
+     */
+    private Prometheus() {
+    }
+
+    /**
+     * Writes the HELP and TYPE lines that start a metric family.
+     *
+     * @param out where to write
+     * @param name metric name
+     * @param type counter, gauge or histogram
+     * @param help what the metric measures
+     */
+    public static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Writes one sample.
+     *
+     * @param out where to write
+     * @param name metric name
+     * @param labels label pairs as name, value, name, value...
+     * @param value the sample's value
+     */
+    public static void sample(StringBuilder out, String name, String[] labels, double value) {
+        out.append(name);
+        labels(out, labels, null, null);
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    /**
+     * Writes the bucket, sum and count samples of a histogram.
+     *
+     * @param out where to write
+     * @param name metric name, without the _bucket/_sum/_count suffix
+     * @param labels label pairs as name, value, name, value...
+     * @param histogram the histogram to write
+     */
+    public static void histogram(StringBuilder out, String name, String[] labels,
+                                 Histogram histogram) {
+        double[] bounds = histogram.bounds();
+        long[] counts = histogram.cumulativeCounts();
+        for (int i = 0; i < counts.length; i++) {
+            out.append(name).append("_bucket");
+            labels(out, labels, "le", i < bounds.length ? format(bounds[i]) : "+Inf");
+            out.append(' ').append(counts[i]).append('\n');
+        }
+        out.append(name).append("_sum");
+        labels(out, labels, null, null);
+        out.append(' ').append(format(histogram.sumSeconds())).append('\n');
+        out.append(name).append("_count");
+        labels(out, labels, null, null);
+        out.append(' ').append(counts[counts.length - 1]).append('\n');
+    }
+
+    private static void labels(StringBuilder out, String[] labels, String extraName,
+                               String extraValue) {
+        if (labels.length == 0 && extraName == null) {
+            return;
+        }
+        out.append('{');
+        boolean first = true;
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (!first) {
+                out.append(',');
+            }
+            label(out, labels[i], labels[i + 1]);
+            first = false;
+        }
+        if (extraName != null) {
+            if (!first) {
+                out.append(',');
+            }
+            label(out, extraName, extraValue);
+        }
+        out.append('}');
+    }
+
+    private static void label(StringBuilder out, String name, String value) {
+        out.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
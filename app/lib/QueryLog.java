@@ -0,0 +1,215 @@
+package lib;
+
+import play.Logger;
+import play.mvc.Http;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+
+/**
+ * Times every SQL statement Ebean runs by wrapping its data source, so the
+ * count covers lazy loads and raw JDBC on Ebean's connections alike. Each
+ * statement is logged if it runs longer than the slow query threshold and,
+ * while a request is being profiled, added to that request's
+ * {@link QueryProfile}. The wrapper is installed by {@link QueryLogStartup}
+ * and configured by {@link ProfilingActionCreator}.
+ *
+ * @author Dean Papastrat
+ */
+public final class QueryLog {
+
+    /**
+     * Statements running longer than this are logged; 0 logs none.
+     */
+    private static volatile long slowNanos = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /**
+     * Non-instantiable helper.
+     */
+    private QueryLog() {
+    }
+
+    /**
+     * Sets the slow query threshold.
+     *
+     * @param millis threshold in milliseconds, or 0 to log no slow queries
+     */
+    public static void configure(long millis) {
+        slowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, millis));
+    }
+
+    /**
+     * Wraps a data source so statements run on its connections are timed.
+     *
+     * @param dataSource the data source to wrap
+     * @return the timed data source
+     */
+    public static DataSource wrap(DataSource dataSource) {
+        return new TimedDataSource(dataSource);
+    }
+
+    /**
+     * Records one statement.
+     *
+     * @param sql text of the statement
+     * @param nanos time it took to run
+     * @param batch whether it ran a batch of statements in one round trip
+     */
+    static void record(String sql, long nanos, boolean batch) {
+        long slow = slowNanos;
+        Http.Context ctx = Http.Context.current.get();
+        if (slow > 0 && nanos >= slow) {
+            String route = ctx == null ? "no request" : QueryProfile.route(ctx);
+            Logger.warn("Slow query (" + TimeUnit.NANOSECONDS.toMillis(nanos) + "ms, "
+                    + route + "): " + sql);
+        }
+        if (ctx != null) {
+            QueryProfile profile = QueryProfile.get(ctx);
+            if (profile != null) {
+                profile.record(sql, nanos, batch);
+            }
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Hands out connections whose statements are timed.
+     */
+    private static final class TimedDataSource implements DataSource {
+        private final DataSource dataSource;
+
+        TimedDataSource(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return timed(dataSource.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return timed(dataSource.getConnection(username, password));
+        }
+
+        private static Connection timed(Connection connection) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] {Connection.class}, new ConnectionHandler(connection));
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return dataSource.getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException {
+            dataSource.setLogWriter(out);
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException {
+            dataSource.setLoginTimeout(seconds);
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return dataSource.getLoginTimeout();
+        }
+
+        @Override
+        public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            return dataSource.getParentLogger();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            return iface.isInstance(dataSource) ? iface.cast(dataSource)
+                    : dataSource.unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return iface.isInstance(dataSource) || dataSource.isWrapperFor(iface);
+        }
+    }
+
+    /**
+     * Wraps the statements a connection creates.
+     */
+    private static final class ConnectionHandler implements InvocationHandler {
+        private final Connection connection;
+
+        ConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = QueryLog.invoke(connection, method, args);
+            Class<?> type;
+            if (result instanceof CallableStatement) {
+                type = CallableStatement.class;
+            } else if (result instanceof PreparedStatement) {
+                type = PreparedStatement.class;
+            } else if (result instanceof Statement) {
+                type = Statement.class;
+            } else {
+                return result;
+            }
+            // Prepared statements are timed against the SQL they were prepared with.
+            String sql = args != null && args.length > 0 && args[0] instanceof String
+                    ? (String) args[0] : null;
+            return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                    new StatementHandler(result, sql));
+        }
+    }
+
+    /**
+     * Times the execute methods of a statement.
+     */
+    private static final class StatementHandler implements InvocationHandler {
+        private final Object statement;
+        private final String preparedSql;
+
+        StatementHandler(Object statement, String preparedSql) {
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (!name.startsWith("execute")) {
+                return QueryLog.invoke(statement, method, args);
+            }
+            long start = System.nanoTime();
+            try {
+                return QueryLog.invoke(statement, method, args);
+            } finally {
+                String sql = args != null && args.length > 0 && args[0] instanceof String
+                        ? (String) args[0] : preparedSql;
+                record(sql == null ? "(batch)" : sql, System.nanoTime() - start,
+                        name.equals("executeBatch") || name.equals("executeLargeBatch"));
+            }
+        }
+    }
+}
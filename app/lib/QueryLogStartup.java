@@ -0,0 +1,21 @@
+package lib;
+
+import com.avaje.ebean.config.ServerConfig;
+import com.avaje.ebean.event.ServerConfigStartup;
+
+/**
+ * Installs the {@link QueryLog} around the data source before Ebean starts.
+ * Ebean finds this class because it's listed under ebean.default in
+ * conf/application.conf.
+ *
+ * @author Dean Papastrat
+ */
+public class QueryLogStartup implements ServerConfigStartup {
+
+    @Override
+    public void onStart(ServerConfig serverConfig) {
+        if (serverConfig.getDataSource() != null) {
+            serverConfig.setDataSource(QueryLog.wrap(serverConfig.getDataSource()));
+        }
+    }
+}
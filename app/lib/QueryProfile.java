@@ -0,0 +1,158 @@
+package lib;
+
+import play.mvc.Http;
+import play.routing.Router;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The SQL statements one request ran, kept in the request's
+ * {@link Http.Context#args} while the request is being profiled. The same
+ * statement text run again and again in one request, differing only in its
+ * bind values, is the mark of an N+1: a lazy relation such as
+ * {@code trans.items} loaded once per row of a list.
+ *
+ * @author Dean Papastrat
+ */
+public final class QueryProfile {
+
+    /**
+     * Key the profile is stored under in the request's args.
+     */
+    private static final String KEY = QueryProfile.class.getName();
+
+    /**
+     * Most distinct statements tracked per request, so a request that
+     * builds its SQL by hand can't grow the profile without bound.
+     */
+    private static final int MAX_STATEMENTS = 500;
+
+    private final Map<String, Statement> statements = new HashMap<>();
+    private int count = 0;
+    private long nanos = 0;
+
+    private QueryProfile() {
+    }
+
+    /**
+     * Starts profiling a request.
+     *
+     * @param ctx the request's Play context
+     * @return the request's new profile
+     */
+    public static QueryProfile start(Http.Context ctx) {
+        QueryProfile profile = new QueryProfile();
+        ctx.args.put(KEY, profile);
+        return profile;
+    }
+
+    /**
+     * Gets the profile of a request.
+     *
+     * @param ctx the request's Play context
+     * @return the request's profile, or null if it isn't being profiled
+     */
+    public static QueryProfile get(Http.Context ctx) {
+        return (QueryProfile) ctx.args.get(KEY);
+    }
+
+    /**
+     * Describes the route a request matched, for logs.
+     *
+     * @param ctx the request's Play context
+     * @return the method and route pattern, or the path if no route matched
+     */
+    public static String route(Http.Context ctx) {
+        Http.Request request = ctx.request();
+        String pattern = request.tags().get(Router.Tags.ROUTE_PATTERN);
+        return request.method() + " " + (pattern != null ? pattern : request.path());
+    }
+
+    /**
+     * Records one statement. Batches count towards the totals but not
+     * towards repeats, since a batch already runs many rows in one trip.
+     *
+     * @param sql text of the statement
+     * @param nanos time it took to run
+     * @param batch whether it ran a batch of statements
+     */
+    synchronized void record(String sql, long nanos, boolean batch) {
+        this.count++;
+        this.nanos += nanos;
+        if (batch) {
+            return;
+        }
+        Statement statement = statements.get(sql);
+        if (statement == null) {
+            if (statements.size() >= MAX_STATEMENTS) {
+                return;
+            }
+            statement = new Statement(sql);
+            statements.put(sql, statement);
+        }
+        statement.count++;
+        statement.nanos += nanos;
+    }
+
+    /**
+     * @return how many statements the request ran
+     */
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * @return total time the request spent running statements, in milliseconds
+     */
+    public synchronized long millis() {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Finds statements the request ran at least a given number of times.
+     *
+     * @param threshold fewest runs to count as repeated
+     * @return the repeated statements, most runs first
+     */
+    public synchronized List<Statement> repeated(int threshold) {
+        List<Statement> repeated = new ArrayList<>();
+        for (Statement statement : statements.values()) {
+            if (statement.count >= threshold) {
+                repeated.add(statement);
+            }
+        }
+        repeated.sort((a, b) -> Integer.compare(b.count, a.count));
+        return repeated;
+    }
+
+    /**
+     * Runs of one statement text within a request.
+     */
+    public static final class Statement {
+        public final String sql;
+        private int count;
+        private long nanos;
+
+        private Statement(String sql) {
+            this.sql = sql;
+        }
+
+        /**
+         * @return how many times the statement ran
+         */
+        public int count() {
+            return count;
+        }
+
+        /**
+         * @return total time spent running it, in milliseconds
+         */
+        public long millis() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+    }
+}
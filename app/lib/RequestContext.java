@@ -0,0 +1,96 @@
+package lib;
+
+import controllers.Secured;
+import models.User;
+import play.data.DynamicForm;
+import play.data.FormFactory;
+import play.mvc.Http;
+
+import java.util.Objects;
+
+/**
+ * Per-request state for controllers, kept in the request's
+ * {@link Http.Context#args} rather than on the controller, since controller
+ * instances are shared by every request. Form data is bound at most once
+ * and the current user is looked up at most once per request.
+ *
+ * @author Dean Papastrat
+ */
+public final class RequestContext {
+
+    /**
+     * Key the context is stored under in the request's args.
+     */
+    private static final String KEY = RequestContext.class.getName();
+
+    private final Http.Context ctx;
+
+    /**
+     * The request's form and query parameters, once bound.
+     */
+    private DynamicForm formParams;
+
+    /**
+     * Email the current user was looked up by.
+     */
+    private String userEmail;
+
+    /**
+     * The current user, or null if no one is logged in.
+     */
+    private User user;
+
+    /**
+     * Whether the current user has been looked up yet.
+     */
+    private boolean userLoaded = false;
+
+    private RequestContext(Http.Context ctx) {
+        this.ctx = ctx;
+    }
+
+    /**
+     * Gets the context for a request, creating it on first use.
+     *
+     * @param ctx the request's Play context
+     * @return the request's context
+     */
+    public static RequestContext of(Http.Context ctx) {
+        Object context = ctx.args.get(KEY);
+        if (context == null) {
+            context = new RequestContext(ctx);
+            ctx.args.put(KEY, context);
+        }
+        return (RequestContext) context;
+    }
+
+    /**
+     * Binds the request's parameters on first use.
+     *
+     * @param formFactory factory to bind the form with
+     * @return the request's parameters
+     */
+    public DynamicForm formParams(FormFactory formFactory) {
+        if (formParams == null) {
+            formParams = formFactory.form().bindFromRequest();
+        }
+        return formParams;
+    }
+
+    /**
+     * Looks up the logged in user on first use, and again only if the
+     * session changes user during the request, e.g. on login. Lookups go
+     * through the {@link UserCache}.
+     *
+     * @return the current user, or null if no one is logged in
+     */
+    public User currentUser() {
+        String email = Secured.getCurrentUsername(ctx);
+        if (!userLoaded || !Objects.equals(email, userEmail)) {
+            user = UserCache.get(email);
+            userEmail = email;
+            userLoaded = true;
+        }
+        return user;
+    }
+}
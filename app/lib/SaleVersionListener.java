@@ -0,0 +1,67 @@
+package lib;
+
+import com.avaje.ebean.event.BeanPersistListener;
+import models.Item;
+import models.Sale;
+import models.Transaction;
+
+import java.util.Set;
+
+/**
+ * Bumps the {@link SaleVersions} of a sale whenever the sale, one of its
+ * items or one of its transactions is saved or deleted. Ebean calls these
+ * methods only after the write has committed, so a request that reads the
+ * new version can never cache what the database looked like before the
+ * write. Ebean finds this class because it's listed under ebean.default in
+ * conf/application.conf.
+ *
+ * @author Dean Papastrat
+ */
+public class SaleVersionListener implements BeanPersistListener {
+
+    @Override
+    public boolean isRegisterFor(Class<?> cls) {
+        return Sale.class.isAssignableFrom(cls)
+                || Item.class.isAssignableFrom(cls)
+                || Transaction.class.isAssignableFrom(cls);
+    }
+
+    @Override
+    public void inserted(Object bean) {
+        bump(bean);
+    }
+
+    @Override
+    public void updated(Object bean, Set<String> updatedProperties) {
+        bump(bean);
+    }
+
+    @Override
+    public void deleted(Object bean) {
+        bump(bean);
+    }
+
+    @Override
+    public void softDeleted(Object bean) {
+        bump(bean);
+    }
+
+    /**
+     * Bumps the version of the sale a bean belongs to, if any.
+     *
+     * @param bean a sale, item or transaction
+     */
+    private static void bump(Object bean) {
+        Sale sale;
+        if (bean instanceof Sale) {
+            sale = (Sale) bean;
+        } else if (bean instanceof Item) {
+            sale = ((Item) bean).sale;
+        } else {
+            sale = ((Transaction) bean).sale;
+        }
+        if (sale != null) {
+            SaleVersions.bump(sale.id);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package lib;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks a version number per sale that increases on every write to the
+ * sale, its items or its transactions. Cached responses are keyed by this
+ * version so they go stale as soon as anything they show changes.
+ *
+ * @author Dean Papastrat
+ * @version 1.0.0
+ */
+public final class SaleVersions {
+
+    /**
+     * Distinguishes versions handed out by this process from those handed
+     * out before a restart, when all counters start over.
+     */
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    /**
+     * Current version of each sale that has been written to.
+     */
+    private static final ConcurrentMap<Integer, AtomicLong> VERSIONS = new ConcurrentHashMap<>();
+
+    /**
+     * Non-instantiable helper.
+     */
+    private SaleVersions() {
+    }
+
+    /**
+     * Gets the current version of a sale.
+     *
+     * @param saleId id of the sale
+     * @return the sale's version, starting at 0
+     */
+    public static long current(int saleId) {
+        AtomicLong version = VERSIONS.get(saleId);
+        return version == null ? 0 : version.get();
+    }
+
+    /**
+     * Marks a sale as changed, invalidating anything cached against it.
+     *
+     * @param saleId id of the sale
+     */
+    public static void bump(int saleId) {
+        VERSIONS.computeIfAbsent(saleId, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Builds a key identifying one variant of a sale's content at its
+     * current version.
+     *
+     * @param saleId id of the sale
+     * @param version version of the sale, from {@link #current(int)}
+     * @param variant what is being rendered, e.g. the page, user and query
+     * @return a key that changes whenever the sale changes
+     */
+    public static String key(int saleId, long version, String variant) {
+        return "sale:" + saleId + ":" + EPOCH + "." + version + ":" + variant;
+    }
+
+    /**
+     * Builds a strong entity tag for one variant of a sale's content at its
+     * current version.
+     *
+     * @param saleId id of the sale
+     * @param version version of the sale, from {@link #current(int)}
+     * @param variant what is being rendered, e.g. the page, user and query
+     * @return a quoted ETag value
+     */
+    public static String etag(int saleId, long version, String variant) {
+        return "\"" + saleId + "-" + EPOCH + "." + version + "-"
+                + Integer.toHexString(variant.hashCode()) + "\"";
+    }
+}
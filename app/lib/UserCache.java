@@ -0,0 +1,111 @@
+package lib;
+
+import models.User;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Caches logged in users by normalized email, so authenticated requests
+ * don't look up their user in the database every time. Only an immutable
+ * {@link User.Snapshot} is cached, and every lookup gets its own detached
+ * copy of it, so no Ebean bean is shared between requests; code that
+ * changes a user loads it with {@link User#findByEmail} instead. Entries
+ * expire after a short time and the least recently used are dropped beyond
+ * a fixed size; any write to a user through Ebean also drops its entry.
+ *
+ * @author Dean Papastrat
+ */
+public final class UserCache {
+
+    /**
+     * Most users held at once.
+     */
+    private static final int MAX_USERS = 10000;
+
+    /**
+     * How long a user is served from the cache before being reloaded.
+     */
+    private static final long TTL_MILLIS = 60 * 1000L;
+
+    /**
+     * Cached users in access order, so the first entry is the coldest.
+     */
+    private static final LinkedHashMap<String, Entry> USERS =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_USERS;
+                }
+            };
+
+    /**
+     * Non-instantiable helper.
+     */
+    private UserCache() {
+    }
+
+    /**
+     * Gets a read-only copy of a user by email, loading it on a miss or once
+     * its entry expires. Users that don't exist aren't cached.
+     *
+     * @param email email of the user, in any case
+     * @return a detached copy of the user without its password, or null if
+     *         there is no such user
+     */
+    public static User get(String email) {
+        if (email == null) {
+            return null;
+        }
+        String key = normalize(email);
+        long now = System.currentTimeMillis();
+        synchronized (USERS) {
+            Entry entry = USERS.get(key);
+            if (entry != null && entry.expiresAt > now) {
+                return entry.user.toUser();
+            }
+        }
+
+        User user = User.findByEmail(email);
+        if (user == null) {
+            return null;
+        }
+        User.Snapshot snapshot = user.snapshot();
+        synchronized (USERS) {
+            USERS.put(key, new Entry(snapshot, now + TTL_MILLIS));
+        }
+        return snapshot.toUser();
+    }
+
+    /**
+     * Drops a user so the next lookup reads it from the database.
+     *
+     * @param email email of the user, in any case
+     */
+    public static void invalidate(String email) {
+        if (email == null) {
+            return;
+        }
+        synchronized (USERS) {
+            USERS.remove(normalize(email));
+        }
+    }
+
+    private static String normalize(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * A cached user and when it expires.
+     */
+    private static class Entry {
+        final User.Snapshot user;
+        final long expiresAt;
+
+        Entry(User.Snapshot user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
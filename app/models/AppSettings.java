@@ -0,0 +1,54 @@
+package models;
+
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.SqlRow;
+
+/**
+ * Settings the application chooses for itself at runtime and stores in the
+ * app_settings table, so every node agrees on them and keeps them across
+ * restarts. The first node to store a setting wins; delete its row to have
+ * it chosen again.
+ *
+ * @author Dean Papastrat
+ * @version 1.0.0
+ */
+public final class AppSettings {
+
+    private static final String SELECT_SQL = "SELECT value FROM app_settings "
+            + "WHERE name = :name;";
+
+    private static final String INSERT_SQL = "INSERT INTO app_settings (name, value) "
+            + "VALUES (:name, :value) ON CONFLICT (name) DO NOTHING;";
+
+    /**
+     * Non-instantiable helper.
+     */
+    private AppSettings() {
+    }
+
+    /**
+     * Gets a stored setting.
+     *
+     * @param name name of the setting
+     * @return its value, or null if it hasn't been stored
+     */
+    public static String get(String name) {
+        SqlRow row = Ebean.createSqlQuery(SELECT_SQL).setParameter("name", name).findUnique();
+        return row == null ? null : row.getString("value");
+    }
+
+    /**
+     * Stores a setting unless another node already has.
+     *
+     * @param name name of the setting
+     * @param value value to store
+     * @return the stored value, which is another node's if it stored first
+     */
+    public static String putIfAbsent(String name, String value) {
+        Ebean.createSqlUpdate(INSERT_SQL)
+                .setParameter("name", name)
+                .setParameter("value", value)
+                .execute();
+        return get(name);
+    }
+}
@@ -3,6 +3,7 @@ package models;
 import javax.persistence.*;
 import com.avaje.ebean.Model;
 import lib.Formatter;
+import lib.SaleVersions;
 import play.data.validation.*;
 import java.text.DecimalFormat;
 
@@ -225,8 +226,10 @@ public class Item extends Model {
         if (this.sale == null) {
             return false;
         } else {
+            int removedFrom = this.sale.id;
             this.sale = null;
             save();
+            SaleVersions.bump(removedFrom);
             return true;
         }
     }
@@ -0,0 +1,366 @@
+package models;
+
+import com.avaje.ebean.Ebean;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lib.CsvReader;
+import lib.SaleVersions;
+import play.libs.Json;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Imports items into a sale from a CSV or TSV stream. Rows are validated
+ * one at a time into batches, and each batch is inserted in its own short
+ * transaction, so an import holds at most one batch in memory and a
+ * database connection only while writing it. Invalid rows are skipped and
+ * reported by line number.
+ *
+ * The first record must be a header naming the columns. name and price
+ * are required; description, minprice and bidding are optional.
+ *
+ * @author Dean Papastrat
+ * @version 1.0.0
+ */
+public class ItemImport {
+
+    /**
+     * Inserts one imported item, with the same defaults an item saved
+     * through the form gets.
+     */
+    private static final String INSERT_SQL = "INSERT INTO items "
+            + "(created_by_email, sale_id, name, description, price, minprice, bidding, "
+            + "purchased, sold_for, current_bid) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, false, 0, 0)";
+
+    /**
+     * Longest name or description the items table holds.
+     */
+    private static final int MAX_TEXT_LENGTH = 255;
+
+    /**
+     * Most line errors kept for the report; later ones are only counted.
+     */
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    private final Sale sale;
+    private final User creator;
+    private final int batchSize;
+
+    private Map<String, Integer> columns;
+    private boolean done = false;
+    private int imported = 0;
+    private int failed = 0;
+    private final List<LineError> errors = new ArrayList<>();
+
+    /**
+     * Prepares an import.
+     *
+     * @param sale sale to add the items to
+     * @param creator user the items are created by
+     * @param batchSize rows read and then written per database transaction
+     */
+    public ItemImport(Sale sale, User creator, int batchSize) {
+        this.sale = sale;
+        this.creator = creator;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Reads and validates rows until a batch is full or the stream ends.
+     * This only touches the stream, so it can run while no database
+     * connection is held. A stream that can't be parsed any further ends
+     * the import; rows before it are still returned.
+     *
+     * @param reader rows to import
+     * @return the next batch of valid rows, empty once the import is done
+     */
+    public List<Row> read(CsvReader reader) {
+        List<Row> batch = new ArrayList<>();
+        if (done) {
+            return batch;
+        }
+        if (columns == null) {
+            try {
+                columns = header(reader.next());
+            } catch (IOException e) {
+                error(reader.lineNumber(), e.getMessage());
+            }
+            if (columns == null) {
+                done = true;
+                return batch;
+            }
+        }
+
+        while (batch.size() < batchSize) {
+            List<String> record;
+            try {
+                record = reader.next();
+            } catch (IOException e) {
+                error(reader.lineNumber(), e.getMessage());
+                done = true;
+                break;
+            }
+            if (record == null) {
+                done = true;
+                break;
+            }
+
+            String problem = parse(record, reader.lineNumber(), batch);
+            if (problem != null) {
+                error(reader.lineNumber(), problem);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Inserts a batch of rows from {@link #read} in its own short database
+     * transaction. Batches written before a failed one stay imported, and
+     * the failed one ends the import.
+     *
+     * @param batch rows to insert
+     * @return whether there may be more rows to read
+     */
+    public boolean write(List<Row> batch) {
+        if (batch.isEmpty()) {
+            return !done;
+        }
+
+        com.avaje.ebean.Transaction txn = Ebean.beginTransaction();
+        try {
+            Connection connection = txn.getConnection();
+            try (PreparedStatement insert = connection.prepareStatement(INSERT_SQL)) {
+                for (Row row : batch) {
+                    insert.setString(1, creator.email);
+                    insert.setInt(2, sale.id);
+                    insert.setString(3, row.name);
+                    insert.setString(4, row.description);
+                    insert.setDouble(5, row.price);
+                    insert.setDouble(6, row.minprice);
+                    insert.setBoolean(7, row.bidding);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            txn.commit();
+        } catch (SQLException e) {
+            error(batch.get(0).line, "Could not save items from this line on: " + e.getMessage());
+            done = true;
+            return false;
+        } finally {
+            txn.end();
+        }
+
+        imported += batch.size();
+        SaleVersions.bump(sale.id);
+        return !done;
+    }
+
+    /**
+     * Maps header names to column positions.
+     *
+     * @param header the first record
+     * @return column positions by lowercase name, or null if the header is
+     * missing a required column
+     */
+    private Map<String, Integer> header(List<String> header) {
+        if (header == null) {
+            error(1, "File is empty.");
+            return null;
+        }
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            columns.put(header.get(i).trim().toLowerCase(Locale.ROOT), i);
+        }
+        if (!columns.containsKey("name") || !columns.containsKey("price")) {
+            error(1, "Header must include name and price columns.");
+            return null;
+        }
+        return columns;
+    }
+
+    /**
+     * Validates a record and adds it to the batch.
+     *
+     * @return why the record is invalid, or null if it was added
+     */
+    private String parse(List<String> row, int line, List<Row> batch) {
+        String name = field(row, columns, "name");
+        if (name == null) {
+            return "Name is required.";
+        }
+        if (name.length() > MAX_TEXT_LENGTH) {
+            return "Name is longer than " + MAX_TEXT_LENGTH + " characters.";
+        }
+
+        String description = field(row, columns, "description");
+        if (description != null && description.length() > MAX_TEXT_LENGTH) {
+            return "Description is longer than " + MAX_TEXT_LENGTH + " characters.";
+        }
+
+        Double price = money(field(row, columns, "price"));
+        if (price == null) {
+            return "Price must be a non-negative number.";
+        }
+
+        String minpriceField = field(row, columns, "minprice");
+        Double minprice = minpriceField == null ? price : money(minpriceField);
+        if (minprice == null) {
+            return "Minimum price must be a non-negative number.";
+        }
+        if (minprice > price) {
+            return "Minimum price can't be more than the price.";
+        }
+
+        Boolean bidding = flag(field(row, columns, "bidding"));
+        if (bidding == null) {
+            return "Bidding must be true or false.";
+        }
+
+        batch.add(new Row(line, name, description, price, minprice, bidding));
+        return null;
+    }
+
+    /**
+     * @return a trimmed field, or null if the column is absent or blank
+     */
+    private static String field(List<String> row, Map<String, Integer> columns, String column) {
+        Integer index = columns.get(column);
+        if (index == null || index >= row.size()) {
+            return null;
+        }
+        String value = row.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * @return the amount, allowing a leading $, or null if it isn't valid
+     */
+    private static Double money(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            double amount = Double.parseDouble(value.startsWith("$") ? value.substring(1) : value);
+            return amount >= 0 && !Double.isInfinite(amount) ? amount : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the flag, false if blank, or null if it isn't recognized
+     */
+    private static Boolean flag(String value) {
+        if (value == null) {
+            return false;
+        }
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "true": case "yes": case "y": case "on": case "1":
+                return true;
+            case "false": case "no": case "n": case "off": case "0":
+                return false;
+            default:
+                return null;
+        }
+    }
+
+    private void error(int line, String message) {
+        failed++;
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add(new LineError(line, message));
+        }
+    }
+
+    /**
+     * @return number of items inserted
+     */
+    public int imported() {
+        return imported;
+    }
+
+    /**
+     * @return number of rows or problems that were rejected
+     */
+    public int failed() {
+        return failed;
+    }
+
+    /**
+     * @return the first rejected rows, in order
+     */
+    public List<LineError> errors() {
+        return errors;
+    }
+
+    /**
+     * Summarizes the import as JSON.
+     *
+     * @return imported and failed counts with the reported line errors
+     */
+    public JsonNode toJson() {
+        ObjectNode json = Json.newObject();
+        json.put("sale", sale.id);
+        json.put("imported", imported);
+        json.put("failed", failed);
+        ArrayNode errorList = json.putArray("errors");
+        for (LineError error : errors) {
+            errorList.addObject().put("line", error.line).put("message", error.message);
+        }
+        return json;
+    }
+
+    /**
+     * A valid row waiting to be inserted.
+     */
+    public static class Row {
+
+        private final int line;
+        private final String name;
+        private final String description;
+        private final double price;
+        private final double minprice;
+        private final boolean bidding;
+
+        private Row(int line, String name, String description, double price,
+                    double minprice, boolean bidding) {
+            this.line = line;
+            this.name = name;
+            this.description = description;
+            this.price = price;
+            this.minprice = minprice;
+            this.bidding = bidding;
+        }
+    }
+
+    /**
+     * A row that could not be imported.
+     */
+    public static class LineError {
+
+        /**
+         * Line the row starts on, counting the header as line 1.
+         */
+        public final int line;
+
+        /**
+         * Why the row was rejected.
+         */
+        public final String message;
+
+        public LineError(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+    }
+}
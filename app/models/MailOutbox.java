@@ -0,0 +1,162 @@
+package models;
+
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.SqlRow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Durable queue of outgoing emails in the mail_outbox table. Requests only
+ * enqueue; services.MailDispatcher claims batches and sends them.
+ *
+ * @author Dean Papastrat
+ * @version 1.0.0
+ */
+public final class MailOutbox {
+
+    /**
+     * How long a claimed message may stay unsent before another dispatcher
+     * assumes its sender died and claims it again, in minutes. Senders renew
+     * their claim with {@link #renewClaim(List)} while a batch is in flight.
+     */
+    private static final int CLAIM_TIMEOUT_MINUTES = 10;
+
+    /**
+     * Claims the oldest due messages. SKIP LOCKED lets several dispatchers
+     * claim concurrently without waiting on each other.
+     */
+    private static final String CLAIM_SQL = "UPDATE mail_outbox SET status = 'sending', "
+            + "attempts = attempts + 1, claimed_at = now() "
+            + "WHERE id IN (SELECT id FROM mail_outbox "
+            + "WHERE (status = 'pending' AND next_attempt_at <= now()) "
+            + "OR (status = 'sending' AND claimed_at < now() - CAST(:timeout AS interval)) "
+            + "ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED) "
+            + "RETURNING id, sender, recipients, subject, body, attempts;";
+
+    /**
+     * Non-instantiable helper.
+     */
+    private MailOutbox() {
+    }
+
+    /**
+     * Adds an email to the outbox.
+     *
+     * @param transactionId transaction the email is about, or null
+     * @param sender the From address
+     * @param recipients the To addresses
+     * @param subject subject line
+     * @param body plain text body
+     */
+    public static void enqueue(final Integer transactionId, final String sender,
+                               final List<String> recipients, final String subject,
+                               final String body) {
+        String sql = "INSERT INTO mail_outbox (transaction_id, sender, recipients, subject, body) "
+                + "VALUES (:transactionId, :sender, :recipients, :subject, :body);";
+        Ebean.createSqlUpdate(sql)
+                .setParameter("transactionId", transactionId)
+                .setParameter("sender", sender)
+                .setParameter("recipients", String.join("\n", recipients))
+                .setParameter("subject", subject)
+                .setParameter("body", body)
+                .execute();
+    }
+
+    /**
+     * Claims up to a number of due messages for sending.
+     *
+     * @param limit most messages to claim
+     * @return the claimed messages, oldest first
+     */
+    public static List<Message> claim(final int limit) {
+        List<SqlRow> rows = Ebean.createSqlQuery(CLAIM_SQL)
+                .setParameter("timeout", CLAIM_TIMEOUT_MINUTES + " minutes")
+                .setParameter("limit", limit)
+                .findList();
+        List<Message> messages = new ArrayList<>();
+        for (SqlRow row : rows) {
+            messages.add(new Message(row.getInteger("id"), row.getString("sender"),
+                    Arrays.asList(row.getString("recipients").split("\n")),
+                    row.getString("subject"), row.getString("body"),
+                    row.getInteger("attempts")));
+        }
+        messages.sort((a, b) -> Integer.compare(a.id, b.id));
+        return messages;
+    }
+
+    /**
+     * Extends the claim on messages that are still being sent, so they
+     * aren't claimed again while their sender is alive.
+     *
+     * @param ids ids of the claimed messages
+     */
+    public static void renewClaim(final List<Integer> ids) {
+        Ebean.createSqlUpdate("UPDATE mail_outbox SET claimed_at = now() "
+                + "WHERE id IN (:ids) AND status = 'sending';")
+                .setParameter("ids", ids).execute();
+    }
+
+    /**
+     * Records that a message was delivered.
+     *
+     * @param id id of the message
+     */
+    public static void markSent(final int id) {
+        Ebean.createSqlUpdate("UPDATE mail_outbox SET status = 'sent', sent_at = now(), "
+                + "last_error = null WHERE id = :id;")
+                .setParameter("id", id).execute();
+    }
+
+    /**
+     * Records a failed delivery and either schedules a retry or gives up.
+     *
+     * @param id id of the message
+     * @param error why delivery failed
+     * @param retryInSeconds delay before the next attempt, or null to give up
+     */
+    public static void markFailed(final int id, final String error,
+                                  final Long retryInSeconds) {
+        if (retryInSeconds == null) {
+            Ebean.createSqlUpdate("UPDATE mail_outbox SET status = 'failed', "
+                    + "last_error = :error WHERE id = :id;")
+                    .setParameter("error", error)
+                    .setParameter("id", id).execute();
+        } else {
+            Ebean.createSqlUpdate("UPDATE mail_outbox SET status = 'pending', last_error = :error, "
+                    + "next_attempt_at = now() + CAST(:delay AS interval) WHERE id = :id;")
+                    .setParameter("error", error)
+                    .setParameter("delay", retryInSeconds + " seconds")
+                    .setParameter("id", id).execute();
+        }
+    }
+
+    /**
+     * An email claimed from the outbox.
+     *
+     * @author Dean Papastrat
+     */
+    public static class Message {
+        public final int id;
+        public final String sender;
+        public final List<String> recipients;
+        public final String subject;
+        public final String body;
+
+        /**
+         * How many times delivery has been attempted, including this one.
+         */
+        public final int attempts;
+
+        public Message(final int id, final String sender, final List<String> recipients,
+                       final String subject, final String body, final int attempts) {
+            this.id = id;
+            this.sender = sender;
+            this.recipients = recipients;
+            this.subject = subject;
+            this.body = body;
+            this.attempts = attempts;
+        }
+    }
+}
@@ -39,12 +39,22 @@ public class PasswordStorage
     }
 
     public static final String PBKDF2_ALGORITHM = "PBKDF2WithHmacSHA1";
+    public static final String PBKDF2_SHA256_ALGORITHM = "PBKDF2WithHmacSHA256";
 
     // These constants may be changed without breaking existing hashes.
     public static final int SALT_BYTE_SIZE = 24;
     public static final int HASH_BYTE_SIZE = 18;
     public static final int PBKDF2_ITERATIONS = 64000;
 
+    // A stored hash is only upgraded once its iteration count falls this far
+    // below the current one, so small changes in cost don't rehash everyone.
+    public static final double REHASH_MARGIN = 0.8;
+
+    // Settings for new hashes. Existing hashes keep the settings they were
+    // made with until they are upgraded by needsRehash on login.
+    private static volatile String currentAlgorithm = "sha1";
+    private static volatile int currentIterations = PBKDF2_ITERATIONS;
+
     // These constants define the encoding and may not be changed.
     public static final int HASH_SECTIONS = 5;
     public static final int HASH_ALGORITHM_INDEX = 0;
@@ -61,6 +71,12 @@ public class PasswordStorage
 
     public static String createHash(char[] password)
         throws CannotPerformOperationException
+    {
+        return createHash(password, currentAlgorithm, currentIterations);
+    }
+
+    public static String createHash(char[] password, String algorithm, int iterations)
+        throws CannotPerformOperationException
     {
         // Generate a random salt
         SecureRandom random = new SecureRandom();
@@ -68,12 +84,13 @@ public class PasswordStorage
         random.nextBytes(salt);
 
         // Hash the password
-        byte[] hash = pbkdf2(password, salt, PBKDF2_ITERATIONS, HASH_BYTE_SIZE);
+        byte[] hash = pbkdf2(password, salt, iterations, HASH_BYTE_SIZE,
+            jceAlgorithm(algorithm));
         int hashSize = hash.length;
 
         // format: algorithm:iterations:hashSize:salt:hash
-        String parts = "sha1:" +
-            PBKDF2_ITERATIONS +
+        String parts = algorithm + ":" +
+            iterations +
             ":" + hashSize +
             ":" +
             toBase64(salt) +
@@ -99,12 +116,7 @@ public class PasswordStorage
             );
         }
 
-        // Currently, Java only supports SHA1.
-        if (!params[HASH_ALGORITHM_INDEX].equals("sha1")) {
-            throw new CannotPerformOperationException(
-                "Unsupported hash type."
-            );
-        }
+        String algorithm = jceAlgorithm(params[HASH_ALGORITHM_INDEX]);
 
         int iterations = 0;
         try {
@@ -162,7 +174,7 @@ public class PasswordStorage
 
         // Compute the hash of the provided password, using the same salt, 
         // iteration count, and hash length
-        byte[] testHash = pbkdf2(password, salt, iterations, hash.length);
+        byte[] testHash = pbkdf2(password, salt, iterations, hash.length, algorithm);
         // Compare the hashes in constant time. The password is correct if
         // both hashes match.
         return slowEquals(hash, testHash);
@@ -176,12 +188,118 @@ public class PasswordStorage
         return diff == 0;
     }
 
-    private static byte[] pbkdf2(char[] password, byte[] salt, int iterations, int bytes)
+    /**
+     * Uses the given settings for every hash created from now on.
+     *
+     * @param algorithm "sha1" or "sha256"
+     * @param iterations PBKDF2 iteration count
+     */
+    public static void configure(String algorithm, int iterations)
+        throws CannotPerformOperationException
+    {
+        jceAlgorithm(algorithm);
+        if (iterations < 1) {
+            throw new CannotPerformOperationException(
+                "Invalid number of iterations. Must be >= 1."
+            );
+        }
+        currentAlgorithm = algorithm;
+        currentIterations = iterations;
+    }
+
+    public static String currentAlgorithm()
+    {
+        return currentAlgorithm;
+    }
+
+    public static int currentIterations()
+    {
+        return currentIterations;
+    }
+
+    /**
+     * Checks whether a stored hash was made with weaker settings than new
+     * hashes get, so it should be replaced the next time its password is
+     * known to be correct.
+     *
+     * @param correctHash a hash from createHash
+     * @return true if the algorithm differs or the iteration count is more
+     *         than REHASH_MARGIN below the current one
+     */
+    public static boolean needsRehash(String correctHash)
+    {
+        String[] params = correctHash.split(":");
+        if (params.length != HASH_SECTIONS) {
+            return true;
+        }
+        try {
+            return !params[HASH_ALGORITHM_INDEX].equals(currentAlgorithm)
+                || Integer.parseInt(params[ITERATION_INDEX])
+                    < (long) (currentIterations * REHASH_MARGIN);
+        } catch (NumberFormatException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * Picks the iteration count that makes one hash take about the target
+     * time on this machine, by timing a trial run and scaling it. The count
+     * is rounded down to a power of two, so timing noise between runs and
+     * machines almost always lands on the same value.
+     *
+     * @param algorithm "sha1" or "sha256"
+     * @param targetMillis how long one hash should take at most
+     * @param minIterations never return fewer iterations than this
+     * @return the iteration count
+     */
+    public static int calibrate(String algorithm, long targetMillis, int minIterations)
+        throws CannotPerformOperationException
+    {
+        String jce = jceAlgorithm(algorithm);
+        char[] password = "calibration-password".toCharArray();
+        byte[] salt = new byte[SALT_BYTE_SIZE];
+        new SecureRandom().nextBytes(salt);
+
+        int trialIterations = 10000;
+        // Warm up the JIT for a while before timing, then keep the fastest
+        // of several trials.
+        long warmUntil = System.nanoTime() + 500000000L;
+        while (System.nanoTime() < warmUntil) {
+            pbkdf2(password, salt, trialIterations, HASH_BYTE_SIZE, jce);
+        }
+        long bestNanos = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            pbkdf2(password, salt, trialIterations, HASH_BYTE_SIZE, jce);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+        }
+
+        double nanosPerIteration = Math.max(1.0, (double) bestNanos / trialIterations);
+        long iterations = (long) (targetMillis * 1000000L / nanosPerIteration);
+        iterations = Long.highestOneBit(Math.min(Integer.MAX_VALUE, iterations));
+        return (int) Math.max(minIterations, iterations);
+    }
+
+    private static String jceAlgorithm(String algorithm)
+        throws CannotPerformOperationException
+    {
+        if (algorithm.equals("sha1")) {
+            return PBKDF2_ALGORITHM;
+        } else if (algorithm.equals("sha256")) {
+            return PBKDF2_SHA256_ALGORITHM;
+        }
+        throw new CannotPerformOperationException(
+            "Unsupported hash type."
+        );
+    }
+
+    private static byte[] pbkdf2(char[] password, byte[] salt, int iterations, int bytes,
+                                 String algorithm)
         throws CannotPerformOperationException
     {
         try {
             PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, bytes * 8);
-            SecretKeyFactory skf = SecretKeyFactory.getInstance(PBKDF2_ALGORITHM);
+            SecretKeyFactory skf = SecretKeyFactory.getInstance(algorithm);
             return skf.generateSecret(spec).getEncoded();
         } catch (NoSuchAlgorithmException ex) {
             throw new CannotPerformOperationException(
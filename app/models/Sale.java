@@ -432,24 +432,26 @@ public class Sale extends Model {
     }
 
     /**
-     * Build the query to retrieve the financial report of items sold by a seller
+     * Build the query to retrieve the financial report of items sold by a seller.
+     * Every row also carries the seller's total in its total column.
      * @param sellerEmail the email of the seller
      * @param saleId the sale id
      * @return the report of items sold by a seller
      */
 
     public List<SqlRow> findReport(String sellerEmail, int saleId) {
-        String sql = "SELECT * FROM (SELECT items.name AS itemname, items.id AS itemid, items.created_by_email as owneremail,\n" +
-                "items.description,items.price, items.sold_for, transactions.created_at AS soldat,\n" +
-                "transactions.customer_name AS soldTo, transactions.sale_id AS saleid, transactions.id AS transid\n" +
-                "FROM (items INNER JOIN transactions ON items.transaction_id = transactions.id) \n" +
-                "WHERE(items.created_by_email = :ownerEmail AND transactions.sale_id = :id)) AS output1,\n" +
-                "(SELECT users.name AS owner from users WHERE users.email = :userEmail) AS output2";
+        String sql = "SELECT items.name AS itemname, items.id AS itemid, items.created_by_email AS owneremail,\n" +
+                "items.description, items.price, items.sold_for, transactions.created_at AS soldat,\n" +
+                "transactions.customer_name AS soldTo, transactions.sale_id AS saleid, transactions.id AS transid,\n" +
+                "users.name AS owner, SUM(items.price) OVER () AS total\n" +
+                "FROM items INNER JOIN transactions ON items.transaction_id = transactions.id\n" +
+                "LEFT JOIN users ON users.email = items.created_by_email\n" +
+                "WHERE items.created_by_email = :ownerEmail AND transactions.sale_id = :id\n" +
+                "ORDER BY transactions.created_at, items.id";
 
         SqlQuery sqlQuery = Ebean.createSqlQuery(sql);
         sqlQuery.setParameter("ownerEmail", sellerEmail);
         sqlQuery.setParameter("id", saleId);
-        sqlQuery.setParameter("userEmail", sellerEmail);
 
         List<SqlRow> report = sqlQuery.findList();
 
@@ -457,25 +459,6 @@ public class Sale extends Model {
 
     }
 
-    /**
-     * Build a query to  report the total of items sold by a specific seller
-     * @param email the email of the seller
-     * @param id the sale id
-     * @return the total by the seller
-     */
-    public Double reportTotal(String email, int id) {
-
-        String sql = "SELECT SUM(items.price) FROM (items INNER JOIN transactions ON items.transaction_id = transactions.id)\n" +
-                "WHERE (items.created_by_email = :email AND transactions.sale_id = :id)";
-        Double val = Ebean.createSqlQuery(sql).setParameter("email", email).setParameter("id", id).findUnique().getDouble("sum");
-        if (val == null) {
-            return 0.0;
-        } else {
-            return val;
-        }
-    }
-
-
     /**
      * Builds a query for items related to this sale.
      *
@@ -512,6 +495,21 @@ public class Sale extends Model {
         return Transaction.find.where().eq("sale_id", this.id);
     }
 
+    /**
+     * Finds this sale's transactions for the financial reports, with each
+     * seller's name and the names and prices of its items fetched in the
+     * same query, so rendering a report never lazy loads per transaction.
+     *
+     * @return transactions in the order they were made
+     */
+    public final List<Transaction> findReportTransactions() {
+        return findTransactions().query()
+                .fetch("seller", "name")
+                .fetch("items", "name, price")
+                .orderBy("id asc")
+                .findList();
+    }
+
     /**
      * Closes a Sale.
      */
@@ -528,21 +526,12 @@ public class Sale extends Model {
     }
 
     /**
-     * IMPORTANT: THIS IS VULNERABLE TO SQL INJECTION. DO NOT ALLOW
-     * USER INPUT TO BE SENT TO THIS FUNCTION!!!
-     *
-     * Returns SQL rows aggregated and grouped by date
+     * Reads all daily statistics for this sale from its precomputed rollup.
      *
-     * @param selector what the query should select along with date
-     * @return a list of SQL rows
-     */
-    private final List<SqlRow> groupedByDay(String selector) {
-        String sql = "SELECT " + selector + ", date_trunc('day', CREATED_AT) "
-                + " as date FROM transactions WHERE sale_id = :id "
-                + "GROUP BY date_trunc('day', CREATED_AT);";
-        List<SqlRow> rows = Ebean.createSqlQuery(sql).setParameter("id", id)
-                .findList();
-        return rows;
+     * @return the sale's daily stats
+     */
+    public final SaleStats stats() {
+        return SaleStats.forSale(id);
     }
 
     /**
@@ -551,11 +540,7 @@ public class Sale extends Model {
      * @return map of dates and number of transactions
      */
     public final Map<String, Integer> transactionsPerDay() {
-        Map<String, Integer> datesMap = new HashMap<>();
-        for (SqlRow row : groupedByDay("count(*)")) {
-            datesMap.put(row.getString("date"), row.getInteger("count"));
-        }
-        return datesMap;
+        return stats().transactionsPerDay();
     }
 
     /**
@@ -564,13 +549,7 @@ public class Sale extends Model {
      * @return map of dates and total num of transactions to date
      */
     public final Map<String, Integer> transactionsOverTime() {
-        Map<String, Integer> datesMap = new HashMap<>();
-        int count = 0;
-        for (SqlRow row : groupedByDay("count(*)")) {
-            count += row.getInteger("count");
-            datesMap.put(row.getString("date"), count);
-        }
-        return datesMap;
+        return stats().transactionsOverTime();
     }
 
     /**
@@ -579,54 +558,34 @@ public class Sale extends Model {
      * @return map of dates and total revenue
      */
     public final Map<String, Double> revenuePerDay() {
-        Map<String, Double> datesMap = new HashMap<>();
-        for (SqlRow row : groupedByDay("sum(VALUE)")) {
-            datesMap.put(row.getString("date"), row.getDouble("sum"));
-        }
-        return datesMap;
+        return stats().revenuePerDay();
     }
 
     /**
-     * Maps date to number of transactions made since the sale started
+     * Maps date to total revenue made since the sale started
      *
-     * @return map of dates and total num of transactions to date
+     * @return map of dates and total revenue to date
      */
     public final Map<String, Double> revenueOverTime() {
-        Map<String, Double> datesMap = new HashMap<>();
-        Double sum = 0.0;
-        for (SqlRow row : groupedByDay("sum(VALUE)")) {
-            sum += row.getInteger("sum");
-            datesMap.put(row.getString("date"), sum);
-        }
-        return datesMap;
+        return stats().revenueOverTime();
     }
 
     /**
-     * Maps date to total revenue made on that day
+     * Maps date to number of items sold on that day
      *
-     * @return map of dates and total revenue
+     * @return map of dates and items sold
      */
     public final Map<String, Double> itemsPerDay() {
-        Map<String, Double> datesMap = new HashMap<>();
-        for (SqlRow row : groupedByDay("sum(NUM_ITEMS)")) {
-            datesMap.put(row.getString("date"), row.getDouble("sum"));
-        }
-        return datesMap;
+        return stats().itemsPerDay();
     }
 
     /**
-     * Maps date to number of transactions made since the sale started
+     * Maps date to number of items sold since the sale started
      *
-     * @return map of dates and total num of transactions to date
+     * @return map of dates and total items sold to date
      */
     public final Map<String, Double> itemsOverTime() {
-        Map<String, Double> datesMap = new HashMap<>();
-        Double sum = 0.0;
-        for (SqlRow row : groupedByDay("sum(NUM_ITEMS)")) {
-            sum += row.getInteger("sum");
-            datesMap.put(row.getString("date"), sum);
-        }
-        return datesMap;
+        return stats().itemsOverTime();
     }
 
     /* JSON Stuff */
@@ -636,13 +595,6 @@ public class Sale extends Model {
      * @return a json object with all stats
      */
     public final JsonNode statsJson() {
-        ObjectNode json = Json.newObject();
-        json.putPOJO("itemsPerDay", itemsPerDay());
-        json.putPOJO("itemsOverTime", itemsOverTime());
-        json.putPOJO("revenuePerDay", revenuePerDay());
-        json.putPOJO("revenueOverTime", revenueOverTime());
-        json.putPOJO("transactionsPerDay", transactionsPerDay());
-        json.putPOJO("transactionsOverTime", transactionsOverTime());
-        return json;
+        return stats().toJson();
     }
 }
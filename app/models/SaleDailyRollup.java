@@ -0,0 +1,109 @@
+package models;
+
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.SqlRow;
+import com.avaje.ebean.SqlUpdate;
+import lib.SaleVersions;
+
+import java.sql.Date;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Maintains the sale_daily_rollup table, which holds the number of
+ * transactions, revenue and items sold per sale per day. Rows are updated
+ * with deltas as transactions change so stats never rescan transactions.
+ *
+ * @author Dean Papastrat
+ * @version 1.0.0
+ */
+public final class SaleDailyRollup {
+
+    /**
+     * Adds a delta to a day's row, creating the row if it doesn't exist.
+     */
+    private static final String UPSERT_SQL = "INSERT INTO sale_daily_rollup "
+            + "(sale_id, day, count, revenue, items) "
+            + "VALUES (:saleId, :day, :count, :revenue, :items) "
+            + "ON CONFLICT (sale_id, day) DO UPDATE SET "
+            + "count = sale_daily_rollup.count + EXCLUDED.count, "
+            + "revenue = sale_daily_rollup.revenue + EXCLUDED.revenue, "
+            + "items = sale_daily_rollup.items + EXCLUDED.items;";
+
+    /**
+     * Reads a sale's days in order, in the shape SaleStats expects.
+     */
+    private static final String SELECT_SQL = "SELECT CAST(day AS timestamp) AS date, "
+            + "count, revenue, items FROM sale_daily_rollup "
+            + "WHERE sale_id = :saleId AND count > 0 ORDER BY day;";
+
+    /**
+     * Recomputes a sale's rows from its transactions.
+     */
+    private static final String REBUILD_SQL = "INSERT INTO sale_daily_rollup "
+            + "(sale_id, day, count, revenue, items) "
+            + "SELECT sale_id, CAST(date_trunc('day', created_at) AS date), count(*), "
+            + "coalesce(sum(value), 0), coalesce(sum(num_items), 0) "
+            + "FROM transactions WHERE sale_id = :saleId "
+            + "GROUP BY sale_id, CAST(date_trunc('day', created_at) AS date);";
+
+    /**
+     * Non-instantiable helper.
+     */
+    private SaleDailyRollup() {
+    }
+
+    /**
+     * Applies a change in a sale's activity to the day it belongs to.
+     *
+     * @param saleId id of the sale
+     * @param createdAt when the affected transaction was created
+     * @param count change in number of transactions
+     * @param revenue change in revenue
+     * @param items change in number of items sold
+     */
+    public static void record(final int saleId, final LocalDateTime createdAt,
+                              final int count, final double revenue, final int items) {
+        if (count == 0 && revenue == 0.0 && items == 0) {
+            return;
+        }
+
+        SqlUpdate update = Ebean.createSqlUpdate(UPSERT_SQL);
+        update.setParameter("saleId", saleId);
+        update.setParameter("day", Date.valueOf(createdAt.toLocalDate()));
+        update.setParameter("count", count);
+        update.setParameter("revenue", revenue);
+        update.setParameter("items", items);
+        update.execute();
+    }
+
+    /**
+     * Reads the precomputed daily rows for a sale.
+     *
+     * @param saleId id of the sale
+     * @return one row per active day, in ascending date order
+     */
+    public static List<SqlRow> findBySale(final int saleId) {
+        return Ebean.createSqlQuery(SELECT_SQL).setParameter("saleId", saleId)
+                .findList();
+    }
+
+    /**
+     * Discards and recomputes a sale's rollup from its transaction history.
+     *
+     * @param saleId id of the sale to rebuild
+     */
+    public static void rebuild(final int saleId) {
+        com.avaje.ebean.Transaction txn = Ebean.beginTransaction();
+        try {
+            Ebean.createSqlUpdate("DELETE FROM sale_daily_rollup WHERE sale_id = :saleId;")
+                    .setParameter("saleId", saleId).execute();
+            Ebean.createSqlUpdate(REBUILD_SQL).setParameter("saleId", saleId)
+                    .execute();
+            txn.commit();
+        } finally {
+            txn.end();
+        }
+        SaleVersions.bump(saleId);
+    }
+}
@@ -0,0 +1,135 @@
+package models;
+
+import com.avaje.ebean.SqlRow;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import play.libs.Json;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Daily activity statistics for a sale, built in one ordered pass over its
+ * precomputed rows in the sale_daily_rollup table.
+ *
+ * @author Dean Papastrat
+ * @version 1.0.0
+ */
+public class SaleStats {
+
+    private final Map<String, Integer> transactionsPerDay = new LinkedHashMap<>();
+    private final Map<String, Integer> transactionsOverTime = new LinkedHashMap<>();
+    private final Map<String, Double> revenuePerDay = new LinkedHashMap<>();
+    private final Map<String, Double> revenueOverTime = new LinkedHashMap<>();
+    private final Map<String, Double> itemsPerDay = new LinkedHashMap<>();
+    private final Map<String, Double> itemsOverTime = new LinkedHashMap<>();
+
+    /**
+     * Builds every series from rows ordered by date, each carrying the
+     * columns date, count, revenue and items.
+     *
+     * @param rows aggregated rows, one per day, in ascending date order
+     */
+    public SaleStats(final List<SqlRow> rows) {
+        int count = 0;
+        double revenue = 0.0;
+        double items = 0.0;
+        for (SqlRow row : rows) {
+            String date = row.getString("date");
+            int dayCount = valueOf(row.getInteger("count"));
+            double dayRevenue = valueOf(row.getDouble("revenue"));
+            double dayItems = valueOf(row.getDouble("items"));
+
+            count += dayCount;
+            revenue += dayRevenue;
+            items += dayItems;
+
+            transactionsPerDay.put(date, dayCount);
+            transactionsOverTime.put(date, count);
+            revenuePerDay.put(date, dayRevenue);
+            revenueOverTime.put(date, revenue);
+            itemsPerDay.put(date, dayItems);
+            itemsOverTime.put(date, items);
+        }
+    }
+
+    /**
+     * Reads the daily rollup for a sale and builds its stats.
+     *
+     * @param saleId id of the sale
+     * @return stats for the sale
+     */
+    public static SaleStats forSale(final int saleId) {
+        return new SaleStats(SaleDailyRollup.findBySale(saleId));
+    }
+
+    private static int valueOf(final Integer value) {
+        return value == null ? 0 : value;
+    }
+
+    private static double valueOf(final Double value) {
+        return value == null ? 0.0 : value;
+    }
+
+    /* SERIES */
+
+    /**
+     * @return map of dates and number of transactions
+     */
+    public final Map<String, Integer> transactionsPerDay() {
+        return transactionsPerDay;
+    }
+
+    /**
+     * @return map of dates and total num of transactions to date
+     */
+    public final Map<String, Integer> transactionsOverTime() {
+        return transactionsOverTime;
+    }
+
+    /**
+     * @return map of dates and total revenue on that day
+     */
+    public final Map<String, Double> revenuePerDay() {
+        return revenuePerDay;
+    }
+
+    /**
+     * @return map of dates and total revenue to date
+     */
+    public final Map<String, Double> revenueOverTime() {
+        return revenueOverTime;
+    }
+
+    /**
+     * @return map of dates and items sold on that day
+     */
+    public final Map<String, Double> itemsPerDay() {
+        return itemsPerDay;
+    }
+
+    /**
+     * @return map of dates and total items sold to date
+     */
+    public final Map<String, Double> itemsOverTime() {
+        return itemsOverTime;
+    }
+
+    /* JSON Stuff */
+
+    /**
+     * Converts stats into a JSON object
+     * @return a json object with all stats
+     */
+    public final JsonNode toJson() {
+        ObjectNode json = Json.newObject();
+        json.putPOJO("itemsPerDay", itemsPerDay);
+        json.putPOJO("itemsOverTime", itemsOverTime);
+        json.putPOJO("revenuePerDay", revenuePerDay);
+        json.putPOJO("revenueOverTime", revenueOverTime);
+        json.putPOJO("transactionsPerDay", transactionsPerDay);
+        json.putPOJO("transactionsOverTime", transactionsOverTime);
+        return json;
+    }
+}
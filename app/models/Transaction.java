@@ -4,11 +4,14 @@ import javax.persistence.*;
 
 import com.avaje.ebean.*;
 import lib.Formatter;
+import lib.SaleVersions;
 import play.data.validation.*;
 import play.data.format.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Represents a transaction between a customer and an item.
@@ -72,8 +75,9 @@ public class Transaction extends Model {
         this.sale = sale;
         this.seller = seller;
         this.createdAt = LocalDateTime.now();
-        this.numItems = addItems(items);
-        updateItemValues(false);
+        List<SqlRow> added = addItems(items);
+        this.numItems = added.size();
+        this.value = sumPrices(added);
     }
 
     @Override
@@ -117,63 +121,71 @@ public class Transaction extends Model {
     /* ADD AND REMOVE ITEMS */
 
     /**
-     * Adds an item to the transaction.
-     * @param item item to add
+     * Claims an item for the transaction. The update only succeeds while the
+     * item is still unpurchased, so when two registers sell the same item
+     * exactly one of them wins and no row lock outlives the statement.
+     *
+     * @param item item to add, carrying the price and soldFor to record
+     * @throws Item.ItemPurchasedException if the item was already sold
      */
-    private void addItem(Item item) {
+    private void addItem(Item item) throws Item.ItemPurchasedException {
+        String sql = "UPDATE items SET transaction_id = :id, purchased = true, "
+                + "price = :price, sold_for = :soldFor "
+                + "WHERE id = :itemId AND purchased = false;";
+        int claimed = Ebean.createSqlUpdate(sql)
+                .setParameter("id", this.id)
+                .setParameter("price", item.price)
+                .setParameter("soldFor", item.soldFor)
+                .setParameter("itemId", item.id)
+                .execute();
+        if (claimed == 0) {
+            throw new Item.ItemPurchasedException(item.id);
+        }
         item.transaction = this;
         item.purchased = true;
-        item.save();
     }
 
     /**
      * Adds an item to the transaction.
      * @param item item to add
      * @param updateCounts whether to update numItems or not
+     * @throws Item.ItemPurchasedException if another transaction sold the
+     *         item first
      */
-    public void addItem(Item item, boolean updateCounts) {
-        addItem(item);
-        if (updateCounts) {
-            this.numItems += 1;
-            this.value += item.price;
-            save();
+    public void addItem(Item item, boolean updateCounts)
+            throws Item.ItemPurchasedException {
+        com.avaje.ebean.Transaction txn = Ebean.beginTransaction();
+        try {
+            addItem(item);
+            if (updateCounts) {
+                adjustTotals(1, item.price);
+            }
+            txn.commit();
+        } finally {
+            txn.end();
         }
+        onChanged();
     }
 
     /**
-     * Adds specified items to the transaction.
+     * Adds specified items to the transaction, skipping any that have
+     * already been purchased.
      *
      * @param itemsToAdd a list of items to add to the transaction
-     * @return how many items were added
+     * @return the price of each item that was added
      */
-    private int addItems(List<Item> itemsToAdd) {
+    private List<SqlRow> addItems(List<Item> itemsToAdd) {
         if (itemsToAdd.size() == 0) {
-            return 0;
+            return new ArrayList<>();
         }
 
-//        String itemIds = "";
-//        for (int i = 0; i < itemsToAdd.size(); i++) {
-//            if (i != 0) {
-//                itemIds = (new StringBuffer()).append(itemIds).append(",").toString();
-//            }
-//
-//            itemIds = (new StringBuffer()).append(itemIds).append(Integer.toString(itemsToAdd.get(i).id)).toString();
-//        }
-
-        StringBuffer buf = new StringBuffer();
-        for (int i = 0; i < itemsToAdd.size(); i++) {
-            if (i != 0) {
-                buf.append(',');
-            }
-            buf.append(Integer.toString(itemsToAdd.get(i).id));
-        }
-        String itemIds = buf.toString();
-
-        String sql = "UPDATE items SET transaction_id = :id WHERE id IN :items;";
-        SqlUpdate update = Ebean.createSqlUpdate(sql);
-        update.setParameter("id", this.id);
-        update.setParameter("items", itemIds);
-        return update.execute();
+        String sql = "UPDATE items SET transaction_id = :id, purchased = true "
+                + "WHERE id IN (:items) AND purchased = false RETURNING price;";
+        List<SqlRow> added = Ebean.createSqlQuery(sql)
+                .setParameter("id", this.id)
+                .setParameter("items", itemIds(itemsToAdd))
+                .findList();
+        return added;
     }
 
     /**
@@ -181,23 +193,40 @@ public class Transaction extends Model {
      * @param updateCounts whether to update numItems or not
      */
     public final void addItems(List<Item> itemsToAdd, boolean updateCounts) {
-        if (updateCounts) {
-            this.numItems = addItems(itemsToAdd);
-            updateItemValues(false);
-            save();
-        } else {
-            addItems(itemsToAdd);
+        com.avaje.ebean.Transaction txn = Ebean.beginTransaction();
+        try {
+            List<SqlRow> added = addItems(itemsToAdd);
+            if (updateCounts) {
+                adjustTotals(added.size(), sumPrices(added));
+            }
+            txn.commit();
+        } finally {
+            txn.end();
         }
+        onChanged();
     }
 
     /**
-     * Removes an item from the transaction.
+     * Releases an item from the transaction. Only an item that is actually
+     * on this transaction is released, so a stale request can't un-sell an
+     * item another register has since sold.
+     *
      * @param item item to remove
+     * @return whether the item was on this transaction
      */
-    private void removeItem(Item item) {
+    private boolean removeItem(Item item) {
+        String sql = "UPDATE items SET transaction_id = null, purchased = false "
+                + "WHERE id = :itemId AND transaction_id = :id;";
+        int released = Ebean.createSqlUpdate(sql)
+                .setParameter("itemId", item.id)
+                .setParameter("id", this.id)
+                .execute();
+        if (released == 0) {
+            return false;
+        }
         item.transaction = null;
         item.purchased = false;
-        item.save();
+        return true;
     }
 
     /**
@@ -206,43 +235,37 @@ public class Transaction extends Model {
      * @param updateCounts whether to update numItems or not
      */
     public void removeItem(Item item, boolean updateCounts) {
-        removeItem(item);
-        if (updateCounts) {
-            this.numItems -= 1;
-            this.value -= item.price;
-            save();
+        com.avaje.ebean.Transaction txn = Ebean.beginTransaction();
+        try {
+            if (removeItem(item) && updateCounts) {
+                adjustTotals(-1, -item.price);
+            }
+            txn.commit();
+        } finally {
+            txn.end();
         }
+        onChanged();
     }
 
     /**
-     * Removes the specified items from the transaction.
+     * Removes the specified items from the transaction, skipping any that
+     * aren't on it.
      *
      * @param itemsToRemove a list of items to remove from the transaction
-     * @return how many items were removed
+     * @return the price of each item that was removed
      */
-    private int removeItems(List<Item> itemsToRemove) {
-//        String itemIds = "";
-//        for (int i = 0; i < itemsToRemove.size(); i++) {
-//            if (i != 0) {
-//                itemIds = (new StringBuilder()).append(itemIds).append(",").toString();
-//            }
-//
-//            itemIds = (new StringBuilder()).append(itemIds).append(Integer.toString(itemsToRemove.get(i).id)).toString();
-//        }
-        StringBuffer buf = new StringBuffer();
-        for (int i = 0; i < itemsToRemove.size(); i++) {
-            if (i != 0) {
-                buf.append(',');
-            }
-            buf.append(Integer.toString(itemsToRemove.get(i).id));
+    private List<SqlRow> removeItems(List<Item> itemsToRemove) {
+        if (itemsToRemove.size() == 0) {
+            return new ArrayList<>();
         }
-        String itemIds = buf.toString();
 
-        String sql = "UPDATE items SET transaction_id = :id, purchased = true WHERE transaction_id = :transactionId;";
-        SqlUpdate update = Ebean.createSqlUpdate(sql);
-        update.setParameter("id", null);
-        update.setParameter("transactionId", this.id);
-        return update.execute();
+        String sql = "UPDATE items SET transaction_id = null, purchased = false "
+                + "WHERE id IN (:items) AND transaction_id = :id RETURNING price;";
+        List<SqlRow> removed = Ebean.createSqlQuery(sql)
+                .setParameter("items", itemIds(itemsToRemove))
+                .setParameter("id", this.id)
+                .findList();
+        return removed;
     }
 
     /**
@@ -250,13 +273,30 @@ public class Transaction extends Model {
      * @param updateCounts whether to update numItems or not
      */
     public final void removeItems(List<Item> itemsToRemove, boolean updateCounts) {
-        if (updateCounts) {
-            this.numItems -= removeItems(itemsToRemove);
-            updateItemValues(false);
-            save();
-        } else {
-            removeItems(itemsToRemove);
+        com.avaje.ebean.Transaction txn = Ebean.beginTransaction();
+        try {
+            List<SqlRow> removed = removeItems(itemsToRemove);
+            if (updateCounts) {
+                adjustTotals(-removed.size(), -sumPrices(removed));
+            }
+            txn.commit();
+        } finally {
+            txn.end();
         }
+        onChanged();
+    }
+
+    /**
+     * Releases every item on the transaction.
+     * @return the price of each item that was removed
+     */
+    private List<SqlRow> releaseItems() {
+        String sql = "UPDATE items SET transaction_id = null, purchased = false "
+                + "WHERE transaction_id = :id RETURNING price;";
+        List<SqlRow> removed = Ebean.createSqlQuery(sql)
+                .setParameter("id", this.id)
+                .findList();
+        return removed;
     }
 
     /**
@@ -264,11 +304,9 @@ public class Transaction extends Model {
      * @return how many items were removed
      */
     public final int removeItems() {
-        String sql = "UPDATE items SET transaction_id = :id, purchased = false WHERE transaction_id = :transactionId;";
-        SqlUpdate update = Ebean.createSqlUpdate(sql);
-        update.setParameter("id", null);
-        update.setParameter("transactionId", this.id);
-        return update.execute();
+        int removed = releaseItems().size();
+        onChanged();
+        return removed;
     }
 
     /**
@@ -276,17 +314,163 @@ public class Transaction extends Model {
      * @param updateCounts whether to update numItems or not
      */
     public final void removeItems(boolean updateCounts) {
-        if (updateCounts) {
-            this.numItems = removeItems();
-            updateItemValues(false);
-            save();
-        } else {
-            removeItems();
+        com.avaje.ebean.Transaction txn = Ebean.beginTransaction();
+        try {
+            List<SqlRow> removed = releaseItems();
+            if (updateCounts) {
+                adjustTotals(-removed.size(), -sumPrices(removed));
+            }
+            txn.commit();
+        } finally {
+            txn.end();
+        }
+        onChanged();
+    }
+
+    /**
+     * Sells many items on this transaction in one database transaction.
+     * Every item is validated first; the accepted ones are then marked
+     * purchased with a single update and the totals are adjusted once.
+     *
+     * @param itemIds ids of the items to sell, in scan order
+     * @param soldFor optional sale prices keyed by item id, overriding the
+     *                marked price; each must be at least the item's minprice
+     * @return which items were sold and why the others were rejected
+     */
+    public final Checkout sellItems(List<Integer> itemIds, Map<Integer, Double> soldFor) {
+        Checkout checkout = new Checkout();
+        if (itemIds.isEmpty()) {
+            return checkout;
+        }
+
+        Map<Integer, Item> found = new LinkedHashMap<>();
+        for (Item item : Item.FIND.where().idIn(new ArrayList<Object>(itemIds)).findList()) {
+            found.put(item.id, item);
+        }
+
+        Map<Integer, Double> prices = new LinkedHashMap<>();
+        for (Integer itemId : itemIds) {
+            Item item = found.get(itemId);
+            Double price = soldFor.get(itemId);
+            if (item == null) {
+                checkout.reject(itemId, "Item does not exist.");
+            } else if (item.sale == null || item.sale.id != sale.id) {
+                checkout.reject(itemId, "Item is not part of this sale.");
+            } else if (item.purchased || prices.containsKey(itemId)) {
+                checkout.reject(itemId, "Item has already been purchased.");
+            } else if (price != null && price < item.minprice) {
+                checkout.reject(itemId, "Cannot sell item for less than "
+                        + item.formattedMinprice() + ".");
+            } else {
+                prices.put(itemId, price == null ? item.price : price);
+            }
+        }
+
+        if (prices.isEmpty()) {
+            return checkout;
+        }
+
+        com.avaje.ebean.Transaction txn = Ebean.beginTransaction();
+        try {
+            StringBuilder values = new StringBuilder();
+            for (int i = 0; i < prices.size(); i++) {
+                if (i != 0) {
+                    values.append(", ");
+                }
+                values.append("(CAST(? AS integer), CAST(? AS float))");
+            }
+            String sql = "UPDATE items SET transaction_id = ?, purchased = true, "
+                    + "sold_for = v.sold_for, price = v.sold_for "
+                    + "FROM (VALUES " + values + ") AS v(id, sold_for) "
+                    + "WHERE items.id = v.id AND items.purchased = false "
+                    + "RETURNING items.id;";
+            SqlQuery claim = Ebean.createSqlQuery(sql);
+            int position = 1;
+            claim.setParameter(position++, this.id);
+            for (Map.Entry<Integer, Double> entry : prices.entrySet()) {
+                claim.setParameter(position++, entry.getKey());
+                claim.setParameter(position++, entry.getValue());
+            }
+
+            double soldValue = 0.0;
+            for (SqlRow row : claim.findList()) {
+                Integer itemId = row.getInteger("id");
+                checkout.sold.add(itemId);
+                soldValue += prices.get(itemId);
+            }
+            for (Integer itemId : prices.keySet()) {
+                if (!checkout.sold.contains(itemId)) {
+                    checkout.reject(itemId, "Item has already been purchased.");
+                }
+            }
+
+            adjustTotals(checkout.sold.size(), soldValue);
+            txn.commit();
+        } finally {
+            txn.end();
         }
+        onChanged();
+
+        return checkout;
     }
 
     /* AGGREGATE UPDATERS */
 
+    /**
+     * Atomically moves the stored totals by a delta, in the caller's unit of
+     * work, and copies the resulting totals back onto this object. Concurrent
+     * changes to the same transaction therefore never overwrite each other.
+     *
+     * @param itemDelta change in number of items
+     * @param valueDelta change in value
+     */
+    private void adjustTotals(int itemDelta, double valueDelta) {
+        if (itemDelta == 0 && valueDelta == 0.0) {
+            return;
+        }
+
+        String sql = "UPDATE transactions SET num_items = coalesce(num_items, 0) + :items, "
+                + "value = coalesce(value, 0) + :value WHERE id = :id "
+                + "RETURNING num_items, value;";
+        SqlRow totals = Ebean.createSqlQuery(sql)
+                .setParameter("items", itemDelta)
+                .setParameter("value", valueDelta)
+                .setParameter("id", this.id)
+                .findUnique();
+        this.numItems = totals.getInteger("num_items");
+        this.value = totals.getDouble("value");
+        recordActivity(0, valueDelta, itemDelta);
+    }
+
+    /**
+     * Collects the ids of a list of items.
+     * @param items items to collect ids from
+     * @return the item ids
+     */
+    private static List<Integer> itemIds(List<Item> items) {
+        List<Integer> ids = new ArrayList<>();
+        for (Item item : items) {
+            ids.add(item.id);
+        }
+        return ids;
+    }
+
+    /**
+     * Adds up the price column of rows returned by an item update.
+     * @param rows rows with a price column
+     * @return the total price
+     */
+    private static double sumPrices(List<SqlRow> rows) {
+        double total = 0.0;
+        for (SqlRow row : rows) {
+            Double price = row.getDouble("price");
+            if (price != null) {
+                total += price;
+            }
+        }
+        return total;
+    }
+
     /**
      * Sums the values of the items on this transaction.
      * @return live sum of all item prices
@@ -302,7 +486,9 @@ public class Transaction extends Model {
     }
 
     /**
-     * Updates the value of the transaction based on items linked to it.
+     * Recomputes the value of the transaction from the items linked to it.
+     * Totals are kept up to date incrementally, so this is only needed to
+     * repair drift; see services.TransactionTotalsVerifier.
      * @param save whether or not to save transaction
      */
     public final void updateItemValues(boolean save) {
@@ -312,6 +498,55 @@ public class Transaction extends Model {
         }
     }
 
+    /* DAILY ROLLUP */
+
+    /**
+     * Null-safe copy of the transaction's value.
+     * @return the value, or 0 if unset
+     */
+    private double currentValue() {
+        return value == null ? 0.0 : value;
+    }
+
+    /**
+     * Applies a change in this transaction to its sale's daily rollup.
+     * @param count change in number of transactions
+     * @param revenue change in revenue
+     * @param items change in number of items sold
+     */
+    private void recordActivity(int count, double revenue, int items) {
+        if (sale != null) {
+            SaleDailyRollup.record(sale.id, createdAt, count, revenue, items);
+        }
+    }
+
+    /**
+     * Counts a newly saved transaction in its sale's daily rollup.
+     */
+    @PostPersist
+    public void onInserted() {
+        recordActivity(1, currentValue(), numItems);
+    }
+
+    /**
+     * Removes a deleted transaction from its sale's daily rollup.
+     */
+    @PostRemove
+    public void onDeleted() {
+        recordActivity(-1, -currentValue(), -numItems);
+    }
+
+    /**
+     * Invalidates cached responses for the transaction's sale. Called once
+     * the item updates above have committed; saves of the transaction
+     * itself are covered by {@link lib.SaleVersionListener}.
+     */
+    private void onChanged() {
+        if (sale != null) {
+            SaleVersions.bump(sale.id);
+        }
+    }
+
     /* FORMATTERS */
 
     /**
@@ -351,4 +586,32 @@ public class Transaction extends Model {
     public final ExpressionList<Item> findItems() {
         return Item.FIND.where().eq("transaction_id", this.id);
     }
+
+    /* RESULTS */
+
+    /**
+     * Outcome of selling several items at once.
+     *
+     * @author Dean Papastrat
+     */
+    public static class Checkout {
+        /**
+         * Ids of the items that were sold, in scan order.
+         */
+        public final List<Integer> sold = new ArrayList<>();
+
+        /**
+         * Reasons items were not sold, keyed by item id.
+         */
+        public final Map<Integer, String> rejected = new LinkedHashMap<>();
+
+        /**
+         * Records why an item could not be sold.
+         * @param itemId id of the rejected item
+         * @param reason human-readable reason
+         */
+        void reject(Integer itemId, String reason) {
+            rejected.put(itemId, reason);
+        }
+    }
 }
\ No newline at end of file
@@ -1,22 +1,23 @@
 package models;
 
 import java.time.LocalDateTime;
-
-import javax.inject.Inject;
-
-import play.libs.mailer.Email;
-import play.libs.mailer.MailerClient;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
  * Class for an autogenerated transaction email in GarageBuddy.
  *
  * @author Taj Gillani
- * @version 1.0.0
+ * @version 1.0.1
  */
 
 public class TransactionEmail {
-    @Inject MailerClient mailerClient;
+    /**
+     * Address receipts are sent from.
+     */
+    public static final String SENDER = "GarageBuddy <noreply@garagebuddy.io>";
+
     private final Transaction trans;
     private final LocalDateTime generated;
 
@@ -31,10 +32,51 @@ public class TransactionEmail {
     }
 
     /**
-     * Prepares and sends an email about the completion of trans
+     * Builds the subject line.
+     *
+     * @return the subject of the receipt
      */
+    public String subject() {
+        return "GarageBuddy Sale '" + trans.sale.name + "' Transaction " + trans.id;
+    }
 
+    /**
+     * Builds the list of people who should receive the receipt.
+     *
+     * @return the seller, and the customer if known
+     */
+    public List<String> recipients() {
+        List<String> recipients = new ArrayList<>();
+        recipients.add(trans.seller.name + " <" + trans.seller.email + ">");
+        if (trans.customer != null) {
+            recipients.add(trans.customer.name + " <" + trans.customer.email + ">");
+        }
+        return recipients;
+    }
+
+    /**
+     * Builds the plain text body listing the items sold.
+     *
+     * @return the body of the receipt
+     */
+    public String body() {
+        String bodyhead = "Transaction ID: " + trans.id + "\n";
+        String body1 = trans.seller.name  + " sold items to " + trans.customerName + ".\n";
+        StringBuilder items = new StringBuilder();
+        for (Item i : trans.items) {
+            items.append("\t" + i.name + "\t\t$" + i.price + "\n");
+        }
+        String body2 = items.toString();
+        String body3 = "Total: " + trans.numItems + " items for $" + trans.value + "\n";
+        String bodyfoot = "\nThanks for using GarageBuddy!\n" + "message generated at " + generated.toString() + "\n";
+        return bodyhead + body1 + body2 + body3 + bodyfoot;
+    }
+
+    /**
+     * Prepares an email about the completion of trans and queues it in the
+     * outbox; services.MailDispatcher delivers it in the background.
+     */
     public void mailOut() {
-        // make message parts
+        MailOutbox.enqueue(trans.id, SENDER, recipients(), subject(), body());
     }
 }
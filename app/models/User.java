@@ -2,6 +2,7 @@ package models;
 
 import javax.persistence.*;
 import com.avaje.ebean.Model;
+import lib.UserCache;
 import play.Logger;
 import play.data.validation.*;
 
@@ -75,6 +76,18 @@ public class User extends Model {
      */
     private int loginAttempts = 0;
 
+    /**
+     * Whether checkPassword rehashed the password since it was last saved.
+     */
+    @Transient
+    private boolean passwordRehashed = false;
+
+    /**
+     * Creates an empty user, e.g. for form binding.
+     */
+    public User() {
+    }
+
     /**
      * Creates a user.
      *
@@ -107,17 +120,36 @@ public class User extends Model {
         }
     }
     /**
-     * Checks to see if the password matches the one stored in the DB.
+     * Checks to see if the password matches the one stored in the DB. A
+     * correct password stored with outdated hash settings is rehashed with
+     * the current settings, but not saved; see {@link #saveRehashedPassword}.
      *
      * @param login string of the password the user tries to log in with
      * @return true or false: is supplied password is the correct password?
      */
     public final boolean checkPassword(final String login) {
+        boolean correct;
         try {
-            return PasswordStorage.verifyPassword(login, this.password);
+            correct = PasswordStorage.verifyPassword(login, this.password);
         } catch (Exception echo) {
             return false;
         }
+        if (correct && PasswordStorage.needsRehash(this.password)) {
+            setPassword(login);
+            passwordRehashed = true;
+        }
+        return correct;
+    }
+
+    /**
+     * Saves the password if {@link #checkPassword} rehashed it. Kept apart
+     * from checking so hashing and saving can run on different pools.
+     */
+    public final void saveRehashedPassword() {
+        if (passwordRehashed) {
+            save();
+            passwordRehashed = false;
+        }
     }
 
     /**
@@ -176,6 +208,22 @@ public class User extends Model {
         save();
     }
 
+    /**
+     * Records failed logins counted in memory, only saving once they reach
+     * the limit and lock the user out.
+     *
+     * @param failures recent failed logins for this user
+     * @return number of tries the user has left to log in
+     */
+    public final int recordFailedLogins(final int failures) {
+        int attempts = Math.max(loginAttempts, failures);
+        if (attempts >= MAX_LOGIN_ATTEMPTS && loginAttempts < MAX_LOGIN_ATTEMPTS) {
+            this.loginAttempts = MAX_LOGIN_ATTEMPTS;
+            save();
+        }
+        return Math.max(0, MAX_LOGIN_ATTEMPTS - attempts);
+    }
+
     /**
      * Resets the number of login attempts to 0.
      */
@@ -193,6 +241,69 @@ public class User extends Model {
         return loginAttempts < MAX_LOGIN_ATTEMPTS;
     }
 
+    /**
+     * Drops the user from the session user cache after any write.
+     */
+    @PostUpdate @PostRemove
+    public void onChanged() {
+        UserCache.invalidate(email);
+    }
+
+    /**
+     * Takes an immutable snapshot of the user, without its password, for
+     * the {@link UserCache}.
+     *
+     * @return the snapshot
+     */
+    public final Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * An immutable copy of a user's details, safe to share between threads.
+     */
+    public static final class Snapshot {
+        private final String email;
+        private final String name;
+        private final String address;
+        private final String city;
+        private final String state;
+        private final String postalCode;
+        private final boolean isSuperUser;
+        private final int loginAttempts;
+
+        private Snapshot(User user) {
+            this.email = user.email;
+            this.name = user.name;
+            this.address = user.address;
+            this.city = user.city;
+            this.state = user.state;
+            this.postalCode = user.postalCode;
+            this.isSuperUser = user.isSuperUser;
+            this.loginAttempts = user.loginAttempts;
+        }
+
+        /**
+         * Creates a fresh, detached user from the snapshot for one request
+         * to read. It has no password and must not be saved; load the user
+         * with {@link User#findByEmail} to change it.
+         *
+         * @return the user
+         */
+        public User toUser() {
+            User user = new User();
+            user.email = email;
+            user.name = name;
+            user.address = address;
+            user.city = city;
+            user.state = state;
+            user.postalCode = postalCode;
+            user.isSuperUser = isSuperUser;
+            user.loginAttempts = loginAttempts;
+            return user;
+        }
+    }
+
     /* PERMISSIONS MANAGEMENT */
 
     /**
@@ -0,0 +1,147 @@
+package services;
+
+import lib.Histogram;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.concurrent.HttpExecution;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.inject.*;
+
+/**
+ * Runs actions that block on Ebean and JDBC on their own fixed pool, so a
+ * slow report waits here instead of holding one of Play's default
+ * dispatcher threads. At most garagebuddy.database.maxQueue actions wait for
+ * a thread; beyond that, actions are rejected so the caller can answer 503
+ * straight away.
+ *
+ * Report exports, the mail dispatcher, the totals verifier and password
+ * hashing (registration's email check, calibration) borrow connections from
+ * the same HikariCP pool. So by default the pool gets one thread per
+ * connection those don't claim at their configured limits, and its threads
+ * rarely wait inside Hikari for a connection. They still can, briefly, if
+ * garagebuddy.database.threads is set higher or the pool is shared further.
+ *
+ * Time spent waiting for a thread and time spent running are recorded in
+ * histograms for the metrics endpoint.
+ */
+@Singleton
+public class DatabaseExecutor {
+
+    /**
+     * HikariCP's pool size when db.default.hikaricp.maximumPoolSize isn't set.
+     */
+    private static final int DEFAULT_POOL_SIZE = 10;
+
+    /**
+     * Connections used outside this pool besides exports and mail workers:
+     * the mail dispatcher's claims, the totals verifier and password hashing.
+     */
+    private static final int OTHER_CONNECTIONS = 3;
+
+    private final ThreadPoolExecutor pool;
+    private final Histogram queueWait = new Histogram();
+    private final Histogram latency = new Histogram();
+    private final LongAdder rejected = new LongAdder();
+
+    @Inject
+    public DatabaseExecutor(Configuration configuration, ApplicationLifecycle appLifecycle) {
+        int threads = configuration.getInt("garagebuddy.database.threads",
+                defaultThreads(configuration));
+        int maxQueue = configuration.getInt("garagebuddy.database.maxQueue", 256);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueue), runnable -> {
+                    Thread thread = new Thread(runnable,
+                            "database-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+
+        appLifecycle.addStopHook(() -> {
+            pool.shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Sizes the pool to the connections left once the other services that
+     * use the database are at their configured limits.
+     */
+    private static int defaultThreads(Configuration configuration) {
+        int connections = configuration.getInt("db.default.hikaricp.maximumPoolSize",
+                DEFAULT_POOL_SIZE);
+        int elsewhere = configuration.getInt("garagebuddy.export.maxConcurrent", 4)
+                + configuration.getInt("garagebuddy.mail.maxInFlight", 2)
+                + OTHER_CONNECTIONS;
+        return Math.max(1, connections - elsewhere);
+    }
+
+    /**
+     * Runs work that uses the database on the database pool, with the
+     * current request's context available to it.
+     *
+     * @param work the work, e.g. the rest of an action
+     * @param <T> what the work produces
+     * @return the work's eventual result
+     * @throws RejectedExecutionException if the pool's queue is full
+     */
+    public <T> CompletionStage<T> run(Supplier<T> work) {
+        long queuedAt = System.nanoTime();
+        Executor executor = HttpExecution.fromThread((Executor) pool);
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long startedAt = System.nanoTime();
+                queueWait.record(startedAt - queuedAt);
+                try {
+                    return work.get();
+                } finally {
+                    latency.record(System.nanoTime() - startedAt);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            Logger.warn("Database pool is saturated; rejecting request.");
+            throw e;
+        }
+    }
+
+    /**
+     * @return how long actions waited for a database thread
+     */
+    public Histogram queueWait() {
+        return queueWait;
+    }
+
+    /**
+     * @return how long actions ran on a database thread
+     */
+    public Histogram latency() {
+        return latency;
+    }
+
+    /**
+     * @return number of actions waiting for a thread right now
+     */
+    public int queueDepth() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * @return number of actions turned away because the queue was full
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,407 @@
+package services;
+
+import models.Item;
+import play.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.inject.*;
+
+/**
+ * In-memory inverted index of item name and description tokens, one per
+ * sale, used for checkout autocomplete. A sale's index is built on first
+ * search and kept current by the controllers that create, edit, delete and
+ * sell items. Sales are evicted least recently used first once the total
+ * number of indexed items exceeds garagebuddy.search.maxItems.
+ */
+@Singleton
+public class ItemSearchIndex {
+
+    /**
+     * Score for a query token that equals a name token.
+     */
+    private static final int NAME_EXACT = 4;
+
+    /**
+     * Score for a query token that prefixes a name token.
+     */
+    private static final int NAME_PREFIX = 2;
+
+    /**
+     * Score for a query token that prefixes a description token.
+     */
+    private static final int DESCRIPTION_PREFIX = 1;
+
+    private final int maxItems;
+
+    /**
+     * Indexed sales in access order, so the first entry is the coldest.
+     */
+    private final LinkedHashMap<Integer, SaleIndex> sales = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int indexedItems = 0;
+
+    @Inject
+    public ItemSearchIndex(Configuration configuration) {
+        this.maxItems = configuration.getInt("garagebuddy.search.maxItems", 200000);
+    }
+
+    /**
+     * Finds unpurchased items in a sale whose name or description tokens
+     * start with every token of the query, best matches first.
+     *
+     * @param saleId id of the sale to search
+     * @param query what the cashier has typed so far
+     * @param limit most hits to return
+     * @return ranked hits
+     */
+    public List<Hit> search(int saleId, String query, int limit) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return index(saleId).search(tokens, limit);
+    }
+
+    /**
+     * Adds or replaces an item in its sale's index, if that sale is indexed.
+     *
+     * @param item the item as it is now stored
+     */
+    public void put(Item item) {
+        if (item.sale == null) {
+            return;
+        }
+        SaleIndex index = peek(item.sale.id);
+        if (index != null) {
+            resize(index, index.put(new Entry(item.id, item.name, item.description,
+                    item.price, item.purchased)));
+        }
+    }
+
+    /**
+     * Removes an item from a sale's index.
+     *
+     * @param saleId id of the item's sale
+     * @param itemId id of the deleted item
+     */
+    public void remove(int saleId, int itemId) {
+        SaleIndex index = peek(saleId);
+        if (index != null) {
+            resize(index, index.remove(itemId));
+        }
+    }
+
+    /**
+     * Records that items were sold or returned.
+     *
+     * @param saleId id of the items' sale
+     * @param itemIds ids of the items
+     * @param purchased whether the items are now purchased
+     */
+    public void markPurchased(int saleId, List<Integer> itemIds, boolean purchased) {
+        SaleIndex index = peek(saleId);
+        if (index != null) {
+            index.markPurchased(itemIds, purchased);
+        }
+    }
+
+    /**
+     * Drops a sale's index so it is rebuilt from the database on next use.
+     *
+     * @param saleId id of the sale
+     */
+    public void invalidate(int saleId) {
+        synchronized (sales) {
+            SaleIndex index = sales.remove(saleId);
+            if (index != null) {
+                indexedItems -= index.size;
+            }
+        }
+    }
+
+    /**
+     * Gets a sale's index without building it.
+     *
+     * @param saleId id of the sale
+     * @return the index, or null if the sale isn't indexed
+     */
+    private SaleIndex peek(int saleId) {
+        synchronized (sales) {
+            return sales.get(saleId);
+        }
+    }
+
+    /**
+     * Gets a sale's index, building it from the database on first use.
+     * The new index is published while its write lock is held, so updates
+     * and searches made during the build wait for it instead of being lost.
+     *
+     * @param saleId id of the sale
+     * @return the sale's index
+     */
+    private SaleIndex index(int saleId) {
+        SaleIndex index;
+        synchronized (sales) {
+            index = sales.get(saleId);
+            if (index != null) {
+                return index;
+            }
+            index = new SaleIndex();
+            index.lock.writeLock().lock();
+            sales.put(saleId, index);
+        }
+
+        int added = 0;
+        try {
+            List<Item> items = Item.FIND.query()
+                    .select("id, name, description, price, purchased")
+                    .where().eq("sale_id", saleId).findList();
+            for (Item item : items) {
+                added += index.putLocked(new Entry(item.id, item.name, item.description,
+                        item.price, item.purchased));
+            }
+        } catch (RuntimeException e) {
+            invalidate(saleId);
+            throw e;
+        } finally {
+            index.lock.writeLock().unlock();
+        }
+        resize(index, added);
+        return index;
+    }
+
+    /**
+     * Accounts for a change in an index's size and evicts the coldest other
+     * sales while over the memory cap.
+     *
+     * @param index the index that changed
+     * @param delta change in its number of items
+     */
+    private void resize(SaleIndex index, int delta) {
+        synchronized (sales) {
+            if (!sales.containsValue(index)) {
+                return;
+            }
+            indexedItems += delta;
+            Iterator<SaleIndex> coldest = sales.values().iterator();
+            while (indexedItems > maxItems && coldest.hasNext()) {
+                SaleIndex victim = coldest.next();
+                if (victim != index) {
+                    coldest.remove();
+                    indexedItems -= victim.size;
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits text into lowercase letter and digit runs.
+     *
+     * @param text text to split, may be null
+     * @return the tokens, in order
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String token : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{Nd}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * A search result.
+     */
+    public static class Hit {
+        public final int id;
+        public final String name;
+        public final double price;
+        public final int score;
+
+        Hit(Entry entry, int score) {
+            this.id = entry.id;
+            this.name = entry.name;
+            this.price = entry.price;
+            this.score = score;
+        }
+    }
+
+    /**
+     * What the index keeps about an item.
+     */
+    private static class Entry {
+        final int id;
+        final String name;
+        final double price;
+        final List<String> nameTokens;
+        final List<String> descriptionTokens;
+        volatile boolean purchased;
+
+        Entry(int id, String name, String description, double price, boolean purchased) {
+            this.id = id;
+            this.name = name == null ? "" : name;
+            this.price = price;
+            this.purchased = purchased;
+            this.nameTokens = tokenize(name);
+            this.descriptionTokens = tokenize(description);
+        }
+    }
+
+    /**
+     * The inverted index for one sale.
+     */
+    private static class SaleIndex {
+        final ReadWriteLock lock = new ReentrantReadWriteLock();
+        final Map<Integer, Entry> entries = new HashMap<>();
+        final NavigableMap<String, Set<Integer>> nameTokens = new TreeMap<>();
+        final NavigableMap<String, Set<Integer>> descriptionTokens = new TreeMap<>();
+        volatile int size = 0;
+
+        List<Hit> search(List<String> query, int limit) {
+            lock.readLock().lock();
+            try {
+                Map<Integer, Integer> scores = null;
+                for (String token : query) {
+                    Map<Integer, Integer> tokenScores = new HashMap<>();
+                    collect(descriptionTokens, token, tokenScores, false);
+                    collect(nameTokens, token, tokenScores, true);
+                    if (scores == null) {
+                        scores = tokenScores;
+                    } else {
+                        scores.keySet().retainAll(tokenScores.keySet());
+                        for (Map.Entry<Integer, Integer> score : scores.entrySet()) {
+                            score.setValue(score.getValue() + tokenScores.get(score.getKey()));
+                        }
+                    }
+                    if (scores.isEmpty()) {
+                        break;
+                    }
+                }
+
+                List<Hit> hits = new ArrayList<>();
+                for (Map.Entry<Integer, Integer> score : scores.entrySet()) {
+                    Entry entry = entries.get(score.getKey());
+                    if (entry != null && !entry.purchased) {
+                        hits.add(new Hit(entry, score.getValue()));
+                    }
+                }
+                Collections.sort(hits, (a, b) -> a.score != b.score
+                        ? Integer.compare(b.score, a.score)
+                        : a.name.compareToIgnoreCase(b.name) != 0
+                        ? a.name.compareToIgnoreCase(b.name)
+                        : Integer.compare(a.id, b.id));
+                return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * Scores every item with a token starting with the query token,
+         * keeping the best score per item.
+         */
+        private void collect(NavigableMap<String, Set<Integer>> tokens, String prefix,
+                             Map<Integer, Integer> scores, boolean name) {
+            for (Map.Entry<String, Set<Integer>> match
+                    : tokens.subMap(prefix, true, prefix + Character.MAX_VALUE, false).entrySet()) {
+                int score = !name ? DESCRIPTION_PREFIX
+                        : match.getKey().equals(prefix) ? NAME_EXACT : NAME_PREFIX;
+                for (Integer id : match.getValue()) {
+                    Integer existing = scores.get(id);
+                    if (existing == null || existing < score) {
+                        scores.put(id, score);
+                    }
+                }
+            }
+        }
+
+        int put(Entry entry) {
+            lock.writeLock().lock();
+            try {
+                return putLocked(entry);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        int putLocked(Entry entry) {
+            int delta = removeLocked(entry.id);
+            entries.put(entry.id, entry);
+            link(nameTokens, entry.nameTokens, entry.id);
+            link(descriptionTokens, entry.descriptionTokens, entry.id);
+            size += 1;
+            return delta + 1;
+        }
+
+        int remove(int itemId) {
+            lock.writeLock().lock();
+            try {
+                return removeLocked(itemId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private int removeLocked(int itemId) {
+            Entry old = entries.remove(itemId);
+            if (old == null) {
+                return 0;
+            }
+            unlink(nameTokens, old.nameTokens, itemId);
+            unlink(descriptionTokens, old.descriptionTokens, itemId);
+            size -= 1;
+            return -1;
+        }
+
+        void markPurchased(List<Integer> itemIds, boolean purchased) {
+            lock.readLock().lock();
+            try {
+                for (Integer itemId : itemIds) {
+                    Entry entry = entries.get(itemId);
+                    if (entry != null) {
+                        entry.purchased = purchased;
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private static void link(NavigableMap<String, Set<Integer>> index,
+                                 List<String> tokens, int itemId) {
+            for (String token : tokens) {
+                index.computeIfAbsent(token, k -> new HashSet<>()).add(itemId);
+            }
+        }
+
+        private static void unlink(NavigableMap<String, Set<Integer>> index,
+                                   List<String> tokens, int itemId) {
+            for (String token : tokens) {
+                Set<Integer> ids = index.get(token);
+                if (ids != null) {
+                    ids.remove(itemId);
+                    if (ids.isEmpty()) {
+                        index.remove(token);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package services;
+
+import play.Configuration;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.inject.*;
+
+/**
+ * Rate limits login attempts in memory, so credential stuffing is turned
+ * away before it reaches the database or password hashing. Every attempt
+ * takes a token from a bucket for its email and one for its client IP;
+ * buckets refill continuously and an attempt with either bucket empty is
+ * rejected. Buckets are updated with compare-and-set, and are spread over
+ * independent stripes that each hold a bounded number of keys; a full
+ * stripe drops a tenth of its keys at once, least recently seen first and
+ * keys with failed passwords last.
+ *
+ * Failed passwords are also counted per email here until a successful
+ * login, so a user's lockout is only written to the database once the
+ * count reaches the limit. Counts below the limit live only in memory, so
+ * a restart (or, as a last resort, eviction) forgets them.
+ */
+@Singleton
+public class LoginThrottle {
+
+    /**
+     * Number of independent stripes keys are spread over.
+     */
+    private static final int STRIPES = 16;
+
+    private final Limit perEmail;
+    private final Limit perIp;
+    private final int maxKeysPerStripe;
+
+    @SuppressWarnings("unchecked")
+    private final ConcurrentHashMap<String, Entry>[] stripes = new ConcurrentHashMap[STRIPES];
+
+    @Inject
+    public LoginThrottle(Configuration configuration) {
+        this.perEmail = new Limit(
+                configuration.getInt("garagebuddy.login.perEmail.burst", 5),
+                configuration.getInt("garagebuddy.login.perEmail.perMinute", 5));
+        this.perIp = new Limit(
+                configuration.getInt("garagebuddy.login.perIp.burst", 30),
+                configuration.getInt("garagebuddy.login.perIp.perMinute", 30));
+        this.maxKeysPerStripe = Math.max(1,
+                configuration.getInt("garagebuddy.login.maxKeys", 100000) / STRIPES);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ConcurrentHashMap<>();
+        }
+    }
+
+    /**
+     * Takes a token for a login attempt from the email's and the client's
+     * buckets.
+     *
+     * @param email email being logged in to
+     * @param ip address of the client
+     * @return whether the attempt may go ahead
+     */
+    public boolean tryAcquire(String email, String ip) {
+        long now = System.currentTimeMillis();
+        // Check the client first so one address can't drain a victim's bucket
+        // once it is itself over the limit.
+        return entry("ip:" + ip, now).take(perIp, now)
+                && entry(emailKey(email), now).take(perEmail, now);
+    }
+
+    /**
+     * Records a wrong password for an email.
+     *
+     * @param email email that was logged in to
+     * @return failed attempts for the email since its last successful login
+     */
+    public int failed(String email) {
+        long now = System.currentTimeMillis();
+        return entry(emailKey(email), now).fail(now);
+    }
+
+    /**
+     * Forgets the failed attempts for an email after a successful login.
+     *
+     * @param email email that was logged in to
+     */
+    public void succeeded(String email) {
+        Entry entry = stripe(emailKey(email)).get(emailKey(email));
+        if (entry != null) {
+            entry.failures.set(0);
+        }
+    }
+
+    private static String emailKey(String email) {
+        return "email:" + (email == null ? "" : email.trim().toLowerCase(Locale.ROOT));
+    }
+
+    private ConcurrentHashMap<String, Entry> stripe(String key) {
+        return stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+    }
+
+    private Entry entry(String key, long now) {
+        ConcurrentHashMap<String, Entry> stripe = stripe(key);
+        Entry entry = stripe.get(key);
+        if (entry == null) {
+            if (stripe.size() >= maxKeysPerStripe) {
+                evict(stripe, now);
+            }
+            entry = stripe.computeIfAbsent(key, k -> new Entry(now));
+        }
+        return entry;
+    }
+
+    /**
+     * Shrinks a full stripe to nine tenths of its limit, so the scan is paid
+     * for by many inserts rather than each one. Keys whose buckets have
+     * refilled and that have no failed passwords go first, since forgetting
+     * them changes nothing; then the least recently seen, keeping keys with
+     * failed passwords for as long as possible.
+     */
+    private void evict(ConcurrentHashMap<String, Entry> stripe, long now) {
+        synchronized (stripe) {
+            if (stripe.size() < maxKeysPerStripe) {
+                return;
+            }
+            long idleMillis = Math.max(perEmail.refillMillis(), perIp.refillMillis());
+            stripe.values().removeIf(entry -> entry.failures.get() == 0
+                    && now - entry.lastSeen > idleMillis);
+
+            int target = maxKeysPerStripe - Math.max(1, maxKeysPerStripe / 10);
+            if (stripe.size() <= target) {
+                return;
+            }
+            List<Map.Entry<String, Entry>> oldest = new ArrayList<>(stripe.entrySet());
+            oldest.sort(Comparator.comparing(
+                    (Map.Entry<String, Entry> e) -> e.getValue().failures.get() > 0)
+                    .thenComparingLong(e -> e.getValue().lastSeen));
+            for (int i = 0; i < oldest.size() && stripe.size() > target; i++) {
+                stripe.remove(oldest.get(i).getKey(), oldest.get(i).getValue());
+            }
+        }
+    }
+
+    /**
+     * A bucket's size and refill rate.
+     */
+    private static class Limit {
+        final int burst;
+        final double tokensPerMilli;
+
+        Limit(int burst, int perMinute) {
+            this.burst = Math.max(1, burst);
+            this.tokensPerMilli = Math.max(1, perMinute) / 60000.0;
+        }
+
+        /**
+         * @return how long an empty bucket takes to refill completely
+         */
+        long refillMillis() {
+            return (long) Math.ceil(burst / tokensPerMilli);
+        }
+    }
+
+    /**
+     * Bucket contents at a point in time. Immutable, so a bucket can be
+     * swapped atomically.
+     */
+    private static class Bucket {
+        final double tokens;
+        final long at;
+
+        Bucket(double tokens, long at) {
+            this.tokens = tokens;
+            this.at = at;
+        }
+    }
+
+    /**
+     * The throttling state for one key.
+     */
+    private static class Entry {
+        final AtomicReference<Bucket> bucket = new AtomicReference<>();
+        final AtomicInteger failures = new AtomicInteger();
+        volatile long lastSeen;
+
+        Entry(long now) {
+            this.lastSeen = now;
+        }
+
+        boolean take(Limit limit, long now) {
+            lastSeen = now;
+            while (true) {
+                Bucket current = bucket.get();
+                double tokens = current == null ? limit.burst
+                        : Math.min(limit.burst, current.tokens
+                                + Math.max(0, now - current.at) * limit.tokensPerMilli);
+                if (tokens < 1) {
+                    return false;
+                }
+                if (bucket.compareAndSet(current, new Bucket(tokens - 1, now))) {
+                    return true;
+                }
+            }
+        }
+
+        int fail(long now) {
+            lastSeen = now;
+            return failures.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package services;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import models.MailOutbox;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.inject.*;
+import javax.mail.MessagingException;
+
+/**
+ * Drains the mail outbox in the background. Every poll starts a worker that
+ * claims batches of due messages and sends each over one SMTP connection,
+ * with at most garagebuddy.mail.maxInFlight batches in flight. Claiming and
+ * sending both happen on the workers, off the Akka dispatcher.
+ * Failed messages are retried with exponential backoff until
+ * garagebuddy.mail.maxAttempts is reached.
+ *
+ * This class is registered as an eager singleton in the {@link Module}
+ * class. SMTP settings are shared with play.mailer.
+ */
+@Singleton
+public class MailDispatcher {
+
+    /**
+     * How often the claim on a batch is renewed while it is being sent.
+     * Sending one message takes a few SMTP commands of at most 30 seconds
+     * each, so this keeps well inside MailOutbox's claim timeout.
+     */
+    private static final long CLAIM_RENEW_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final SmtpBatchSender sender;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long retryBackoffSeconds;
+    private final Semaphore inFlight;
+    private final ExecutorService workers;
+    private final Cancellable schedule;
+
+    @Inject
+    public MailDispatcher(ActorSystem actorSystem, Configuration configuration,
+                          ApplicationLifecycle appLifecycle) {
+        this.sender = new SmtpBatchSender(
+                configuration.getString("play.mailer.host", "localhost"),
+                configuration.getInt("play.mailer.port", 25),
+                configuration.getBoolean("play.mailer.tls", false),
+                configuration.getString("play.mailer.user"),
+                configuration.getString("play.mailer.password"));
+        this.batchSize = configuration.getInt("garagebuddy.mail.batchSize", 50);
+        this.maxAttempts = configuration.getInt("garagebuddy.mail.maxAttempts", 5);
+        this.retryBackoffSeconds = configuration.getMilliseconds(
+                "garagebuddy.mail.retryBackoff", 30000L) / 1000;
+
+        int maxInFlight = configuration.getInt("garagebuddy.mail.maxInFlight", 2);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.workers = Executors.newFixedThreadPool(maxInFlight);
+
+        FiniteDuration every = Duration.create(configuration.getMilliseconds(
+                "garagebuddy.mail.pollInterval", 2000L), TimeUnit.MILLISECONDS);
+        this.schedule = actorSystem.scheduler().schedule(every, every, this::dispatch,
+                actorSystem.dispatcher());
+
+        appLifecycle.addStopHook(() -> {
+            schedule.cancel();
+            workers.shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Starts a worker to drain the outbox, unless the in-flight limit is
+     * already reached. Runs on the scheduler, so it never touches the
+     * database itself.
+     */
+    public void dispatch() {
+        if (inFlight.tryAcquire()) {
+            workers.execute(this::drain);
+        }
+    }
+
+    /**
+     * Claims and sends batches until the outbox is empty. Whenever a batch
+     * is found another worker is started, so a backlog is drained by up to
+     * garagebuddy.mail.maxInFlight connections at once.
+     */
+    private void drain() {
+        try {
+            while (true) {
+                List<MailOutbox.Message> batch;
+                try {
+                    batch = MailOutbox.claim(batchSize);
+                } catch (RuntimeException e) {
+                    Logger.error("Could not claim outgoing mail.", e);
+                    return;
+                }
+
+                if (batch.isEmpty()) {
+                    return;
+                }
+                if (inFlight.tryAcquire()) {
+                    workers.execute(this::drain);
+                }
+                send(batch);
+            }
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    /**
+     * Sends one batch and records the outcome of every message. The claim on
+     * the batch is renewed while it is being sent, so a slow SMTP server
+     * can't make another dispatcher claim and send the same messages again.
+     *
+     * @param batch messages to send
+     */
+    private void send(List<MailOutbox.Message> batch) {
+        List<Integer> ids = new ArrayList<>();
+        for (MailOutbox.Message message : batch) {
+            ids.add(message.id);
+        }
+        long[] renewedAt = {System.nanoTime()};
+
+        Map<Integer, Exception> failures;
+        try {
+            failures = sender.send(batch, message -> {
+                if (System.nanoTime() - renewedAt[0] >= CLAIM_RENEW_NANOS) {
+                    renewClaim(ids);
+                    renewedAt[0] = System.nanoTime();
+                }
+            });
+        } catch (MessagingException e) {
+            Logger.warn("Could not connect to SMTP server: " + e.getMessage());
+            for (MailOutbox.Message message : batch) {
+                fail(message, e);
+            }
+            return;
+        }
+
+        for (MailOutbox.Message message : batch) {
+            Exception failure = failures.get(message.id);
+            if (failure == null) {
+                MailOutbox.markSent(message.id);
+            } else {
+                fail(message, failure);
+            }
+        }
+    }
+
+    /**
+     * Renews the claim on a batch that is still being sent.
+     *
+     * @param ids ids of the messages in the batch
+     */
+    private static void renewClaim(List<Integer> ids) {
+        try {
+            MailOutbox.renewClaim(ids);
+        } catch (RuntimeException e) {
+            Logger.warn("Could not renew claim on outgoing mail: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Schedules a retry for a message, or gives up on it after too many
+     * attempts.
+     *
+     * @param message the message that failed
+     * @param error why it failed
+     */
+    private void fail(MailOutbox.Message message, Exception error) {
+        if (message.attempts >= maxAttempts) {
+            Logger.error("Giving up on email " + message.id + " after "
+                    + message.attempts + " attempts.", error);
+            MailOutbox.markFailed(message.id, error.toString(), null);
+        } else {
+            long delay = retryBackoffSeconds << (message.attempts - 1);
+            MailOutbox.markFailed(message.id, error.toString(), delay);
+        }
+    }
+}
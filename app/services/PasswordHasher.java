@@ -0,0 +1,199 @@
+package services;
+
+import lib.Histogram;
+import models.AppSettings;
+import models.PasswordStorage;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.concurrent.HttpExecution;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import javax.inject.*;
+
+/**
+ * Runs PBKDF2 password hashing on a small, dedicated thread pool, so a
+ * burst of logins can't starve Play's default dispatcher. At most
+ * garagebuddy.passwords.maxQueue jobs wait for a thread; beyond that, jobs
+ * are rejected so the caller can answer 503 straight away instead of
+ * queueing without bound.
+ *
+ * Time spent waiting for a thread and time spent hashing are recorded in
+ * histograms for the metrics endpoint. The cost of new hashes is set here
+ * from garagebuddy.passwords at startup; a calibrated iteration count is
+ * stored in app_settings and shared by every node.
+ */
+@Singleton
+public class PasswordHasher {
+
+    private final ThreadPoolExecutor pool;
+    private final Histogram queueWait = new Histogram();
+    private final Histogram hashLatency = new Histogram();
+    private final LongAdder rejected = new LongAdder();
+
+    @Inject
+    public PasswordHasher(Configuration configuration, ApplicationLifecycle appLifecycle) {
+        int threads = configuration.getInt("garagebuddy.passwords.threads",
+                Runtime.getRuntime().availableProcessors());
+        int maxQueue = configuration.getInt("garagebuddy.passwords.maxQueue", 64);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueue), runnable -> {
+                    Thread thread = new Thread(runnable,
+                            "password-hasher-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+
+        configureHashing(configuration);
+
+        appLifecycle.addStopHook(() -> {
+            pool.shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Applies the configured hash settings. The algorithm always applies at
+     * once, so logins never rehash to an older algorithm. With a fixed
+     * iteration count that applies at once too; otherwise the stored or
+     * newly calibrated iteration count is applied from a hashing thread (see
+     * {@link #calibrate}), and minIterations applies until that finishes.
+     */
+    private void configureHashing(Configuration configuration) {
+        String algorithm = configuration.getString("garagebuddy.passwords.algorithm", "sha1");
+        int minIterations = configuration.getInt("garagebuddy.passwords.minIterations",
+                PasswordStorage.PBKDF2_ITERATIONS);
+        Integer iterations = configuration.getInt("garagebuddy.passwords.iterations");
+        Long targetMillis = configuration.getMilliseconds("garagebuddy.passwords.targetHashTime");
+
+        try {
+            if (iterations != null) {
+                PasswordStorage.configure(algorithm, Math.max(minIterations, iterations));
+            } else if (targetMillis != null) {
+                PasswordStorage.configure(algorithm, minIterations);
+                pool.execute(() -> calibrate(algorithm, targetMillis, minIterations));
+            } else {
+                PasswordStorage.configure(algorithm, minIterations);
+            }
+        } catch (PasswordStorage.CannotPerformOperationException e) {
+            Logger.error("Invalid password hashing settings; keeping "
+                    + PasswordStorage.currentAlgorithm() + " with "
+                    + PasswordStorage.currentIterations() + " iterations.", e);
+        }
+    }
+
+    /**
+     * Applies the iteration count stored for the algorithm by whichever node
+     * calibrated first, or calibrates one and stores it if there is none, so
+     * restarts and other nodes don't each pick a slightly different count.
+     * If the database is unavailable the calibrated count applies to this
+     * node only.
+     */
+    private void calibrate(String algorithm, long targetMillis, int minIterations) {
+        String setting = "passwords." + algorithm + ".iterations";
+        try {
+            String stored = readSetting(setting);
+            int iterations;
+            if (stored != null) {
+                iterations = Math.max(minIterations, Integer.parseInt(stored));
+            } else {
+                iterations = PasswordStorage.calibrate(algorithm, targetMillis, minIterations);
+                iterations = Math.max(minIterations, storeSetting(setting, iterations));
+            }
+            PasswordStorage.configure(algorithm, iterations);
+            Logger.info("Password hashes will use " + algorithm + " with "
+                    + iterations + " iterations (target " + targetMillis + "ms"
+                    + (stored != null ? ", stored in app_settings" : "") + ").");
+        } catch (PasswordStorage.CannotPerformOperationException | NumberFormatException e) {
+            Logger.error("Could not calibrate password hashing.", e);
+        }
+    }
+
+    private static String readSetting(String setting) {
+        try {
+            return AppSettings.get(setting);
+        } catch (RuntimeException e) {
+            Logger.warn("Could not read " + setting + "; calibrating for this node only.", e);
+            return null;
+        }
+    }
+
+    private static int storeSetting(String setting, int iterations) {
+        try {
+            return Integer.parseInt(AppSettings.putIfAbsent(setting, Integer.toString(iterations)));
+        } catch (RuntimeException e) {
+            Logger.warn("Could not store " + setting + "; it applies to this node only.", e);
+            return iterations;
+        }
+    }
+
+    /**
+     * Runs work that hashes or verifies a password on the hashing pool,
+     * with the current request's context available to it. Submit only the
+     * hashing itself; loading and saving users belongs on the database pool,
+     * or it would hold hashing threads and skew the hashing histogram.
+     *
+     * @param work the work, e.g. checking a login's password
+     * @param <T> what the work produces
+     * @return the work's eventual result
+     * @throws RejectedExecutionException if the pool's queue is full
+     */
+    public <T> CompletionStage<T> run(Supplier<T> work) {
+        long queuedAt = System.nanoTime();
+        Executor executor = HttpExecution.fromThread((Executor) pool);
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                long startedAt = System.nanoTime();
+                queueWait.record(startedAt - queuedAt);
+                try {
+                    return work.get();
+                } finally {
+                    hashLatency.record(System.nanoTime() - startedAt);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            Logger.warn("Password hashing pool is saturated; rejecting request.");
+            throw e;
+        }
+    }
+
+    /**
+     * @return how long jobs waited for a hashing thread
+     */
+    public Histogram queueWait() {
+        return queueWait;
+    }
+
+    /**
+     * @return how long jobs ran on a hashing thread
+     */
+    public Histogram hashLatency() {
+        return hashLatency;
+    }
+
+    /**
+     * @return number of jobs waiting for a thread right now
+     */
+    public int queueDepth() {
+        return pool.getQueue().size();
+    }
+
+    /**
+     * @return number of jobs turned away because the queue was full
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,467 @@
+package services;
+
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamConverters;
+import akka.util.ByteString;
+import com.avaje.ebean.Ebean;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lib.CsvWriter;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+import scala.concurrent.duration.Duration;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.inject.*;
+
+/**
+ * Streams sale reports as CSV or NDJSON straight from a JDBC cursor to the
+ * HTTP response. Rows are fetched garagebuddy.export.fetchSize at a time and
+ * written as soon as they arrive, and writes block while the client is
+ * slower than the database, so an export of any size uses a fixed amount of
+ * memory. At most garagebuddy.export.maxConcurrent exports read from the
+ * database at once; further exports wait their turn.
+ */
+@Singleton
+public class ReportExporter {
+
+    /**
+     * Every transaction in a sale with its line items, one row per item.
+     * Transactions without items get a single row with empty item columns.
+     */
+    private static final String TRANSACTIONS_SQL = "SELECT t.id, t.created_at, "
+            + "t.customer_name, t.customer_email, t.seller_email, u.name AS seller_name, "
+            + "t.num_items, t.value, i.id AS item_id, i.name AS item_name, "
+            + "i.price AS item_price, i.sold_for AS item_sold_for "
+            + "FROM transactions t "
+            + "LEFT JOIN users u ON u.email = t.seller_email "
+            + "LEFT JOIN items i ON i.transaction_id = t.id "
+            + "WHERE t.sale_id = ? ORDER BY t.id, i.id";
+
+    /**
+     * Settlement lines for a sale: every item sold, grouped by the seller
+     * who listed it, with each seller's subtotal and the sale's grand total
+     * computed by window functions in the same pass.
+     */
+    private static final String STATEMENTS_SQL = "SELECT i.created_by_email AS owner_email, "
+            + "u.name AS owner_name, i.id AS item_id, i.name AS item_name, i.description, "
+            + "i.price, i.sold_for, t.id AS transaction_id, t.created_at AS sold_at, "
+            + "t.customer_name AS sold_to, "
+            + "count(*) OVER seller AS seller_items, "
+            + "sum(i.price) OVER seller AS seller_price, "
+            + "sum(i.sold_for) OVER seller AS seller_sold_for, "
+            + "count(*) OVER () AS total_items, "
+            + "sum(i.price) OVER () AS total_price, "
+            + "sum(i.sold_for) OVER () AS total_sold_for "
+            + "FROM items i "
+            + "INNER JOIN transactions t ON i.transaction_id = t.id "
+            + "LEFT JOIN users u ON u.email = i.created_by_email "
+            + "WHERE t.sale_id = ? AND (CAST(? AS varchar) IS NULL OR i.created_by_email = ?) "
+            + "WINDOW seller AS (PARTITION BY i.created_by_email) "
+            + "ORDER BY i.created_by_email, t.created_at, i.id";
+
+    /**
+     * Export formats.
+     */
+    public enum Format {
+        CSV("text/csv; charset=utf-8", "csv"),
+        NDJSON("application/x-ndjson; charset=utf-8", "ndjson");
+
+        public final String contentType;
+        public final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        /**
+         * Reads a format from a query parameter.
+         *
+         * @param name "csv" or "ndjson"/"json", case insensitive
+         * @return the format, or null if the name isn't one
+         */
+        public static Format parse(String name) {
+            if (name == null || name.equalsIgnoreCase("csv")) {
+                return CSV;
+            } else if (name.equalsIgnoreCase("ndjson") || name.equalsIgnoreCase("json")) {
+                return NDJSON;
+            }
+            return null;
+        }
+    }
+
+    private final ExecutorService workers;
+    private final int fetchSize;
+    private final long writeTimeoutSeconds;
+
+    @Inject
+    public ReportExporter(Configuration configuration, ApplicationLifecycle appLifecycle) {
+        this.workers = Executors.newFixedThreadPool(
+                configuration.getInt("garagebuddy.export.maxConcurrent", 4));
+        this.fetchSize = configuration.getInt("garagebuddy.export.fetchSize", 500);
+        this.writeTimeoutSeconds = configuration.getMilliseconds(
+                "garagebuddy.export.writeTimeout", 60000L) / 1000;
+
+        appLifecycle.addStopHook(() -> {
+            workers.shutdownNow();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Streams every transaction in a sale with its line items. CSV has one
+     * row per line item; NDJSON has one object per transaction with its
+     * items nested.
+     *
+     * @param saleId id of the sale
+     * @param format output format
+     * @return the export's bytes
+     */
+    public Source<ByteString, ?> transactions(int saleId, Format format) {
+        return stream(TRANSACTIONS_SQL, new Object[] {saleId},
+                format == Format.CSV ? new TransactionsCsv() : new TransactionsNdjson());
+    }
+
+    /**
+     * Streams the settlement report for a sale: every item each seller
+     * sold, a subtotal line after each seller and a grand total line last,
+     * all from a single query.
+     *
+     * @param saleId id of the sale
+     * @param sellerEmail only include this seller, or null for all sellers
+     * @param format output format
+     * @return the export's bytes
+     */
+    public Source<ByteString, ?> sellerStatements(int saleId, String sellerEmail, Format format) {
+        return stream(STATEMENTS_SQL, new Object[] {saleId, sellerEmail, sellerEmail},
+                format == Format.CSV ? new StatementsCsv() : new StatementsNdjson());
+    }
+
+    /**
+     * Builds a source whose bytes are written by a worker reading the query.
+     * The query only starts once the response starts streaming. If the
+     * export fails partway the source fails after the bytes written so far,
+     * so the client sees a broken response rather than a short one.
+     */
+    private Source<ByteString, ?> stream(String sql, Object[] parameters, RowWriter rows) {
+        CompletableFuture<ByteString> outcome = new CompletableFuture<>();
+        Source<ByteString, OutputStream> body = StreamConverters.asOutputStream(
+                Duration.create(writeTimeoutSeconds, TimeUnit.SECONDS))
+                .mapMaterializedValue(out -> {
+                    workers.execute(() -> write(sql, parameters, rows, out, outcome));
+                    return out;
+                });
+        return body.concat(Source.fromCompletionStage(outcome).filter(ByteString::nonEmpty));
+    }
+
+    /**
+     * Runs a query with a server-side cursor and writes every row, then
+     * completes the outcome, or fails it if the export could not finish.
+     */
+    private void write(String sql, Object[] parameters, RowWriter rows, OutputStream stream,
+                       CompletableFuture<ByteString> outcome) {
+        // Postgres only honours the fetch size inside a transaction.
+        com.avaje.ebean.Transaction txn = Ebean.beginTransaction();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8))) {
+            rows.start(out);
+            out.flush();
+
+            Connection connection = txn.getConnection();
+            try (PreparedStatement query = connection.prepareStatement(sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                query.setFetchSize(fetchSize);
+                for (int i = 0; i < parameters.length; i++) {
+                    if (parameters[i] == null) {
+                        query.setNull(i + 1, Types.VARCHAR);
+                    } else {
+                        query.setObject(i + 1, parameters[i]);
+                    }
+                }
+                try (ResultSet result = query.executeQuery()) {
+                    while (result.next()) {
+                        rows.row(result, out);
+                    }
+                }
+            }
+            rows.finish(out);
+        } catch (IOException e) {
+            Logger.debug("Export abandoned by client: " + e.getMessage());
+            outcome.completeExceptionally(e);
+            return;
+        } catch (SQLException | RuntimeException e) {
+            Logger.error("Could not export report.", e);
+            outcome.completeExceptionally(e);
+            return;
+        } finally {
+            txn.end();
+        }
+        outcome.complete(ByteString.empty());
+    }
+
+    private static String money(BigDecimal amount) {
+        return amount == null ? null : amount.setScale(2, RoundingMode.HALF_UP).toPlainString();
+    }
+
+    private static BigDecimal money(ResultSet result, String column) throws SQLException {
+        BigDecimal amount = result.getBigDecimal(column);
+        return amount == null ? null : amount.setScale(2, RoundingMode.HALF_UP);
+    }
+
+    private static String time(Timestamp timestamp) {
+        return timestamp == null ? null : timestamp.toLocalDateTime().toString();
+    }
+
+    /**
+     * Writes one format of one report.
+     */
+    private interface RowWriter {
+        void start(Writer out) throws IOException;
+
+        void row(ResultSet result, Writer out) throws IOException, SQLException;
+
+        void finish(Writer out) throws IOException;
+    }
+
+    private static class TransactionsCsv implements RowWriter {
+        private CsvWriter csv;
+
+        @Override
+        public void start(Writer out) throws IOException {
+            csv = new CsvWriter(out);
+            csv.write("transaction_id", "created_at", "customer_name", "customer_email",
+                    "seller_email", "seller_name", "num_items", "value", "item_id",
+                    "item_name", "item_price", "item_sold_for");
+        }
+
+        @Override
+        public void row(ResultSet result, Writer out) throws IOException, SQLException {
+            csv.write(result.getInt("id"), time(result.getTimestamp("created_at")),
+                    result.getString("customer_name"), result.getString("customer_email"),
+                    result.getString("seller_email"), result.getString("seller_name"),
+                    result.getObject("num_items"), money(money(result, "value")),
+                    result.getObject("item_id"), result.getString("item_name"),
+                    money(money(result, "item_price")), money(money(result, "item_sold_for")));
+        }
+
+        @Override
+        public void finish(Writer out) {
+        }
+    }
+
+    /**
+     * Groups consecutive rows of a transaction into one object, so only one
+     * transaction's items are held at a time.
+     */
+    private static class TransactionsNdjson implements RowWriter {
+        private ObjectNode current;
+
+        @Override
+        public void start(Writer out) {
+        }
+
+        @Override
+        public void row(ResultSet result, Writer out) throws IOException, SQLException {
+            int id = result.getInt("id");
+            if (current == null || current.get("id").asInt() != id) {
+                finish(out);
+                current = Json.newObject();
+                current.put("id", id);
+                current.put("createdAt", time(result.getTimestamp("created_at")));
+                current.put("customerName", result.getString("customer_name"));
+                current.put("customerEmail", result.getString("customer_email"));
+                current.put("sellerEmail", result.getString("seller_email"));
+                current.put("sellerName", result.getString("seller_name"));
+                current.put("numItems", result.getInt("num_items"));
+                current.put("value", money(result, "value"));
+                current.putArray("items");
+            }
+
+            int itemId = result.getInt("item_id");
+            if (!result.wasNull()) {
+                ((ArrayNode) current.get("items")).addObject()
+                        .put("id", itemId)
+                        .put("name", result.getString("item_name"))
+                        .put("price", money(result, "item_price"))
+                        .put("soldFor", money(result, "item_sold_for"));
+            }
+        }
+
+        @Override
+        public void finish(Writer out) throws IOException {
+            if (current != null) {
+                out.write(Json.stringify(current));
+                out.write('\n');
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Writes each item line as it arrives, then a subtotal when the seller
+     * changes and a grand total at the end. Totals come from the query's
+     * window columns, so nothing is accumulated here.
+     */
+    private abstract static class Statements implements RowWriter {
+        private String seller;
+        private String sellerName;
+        private int sellerItems;
+        private BigDecimal sellerPrice;
+        private BigDecimal sellerSoldFor;
+        private int totalItems;
+        private BigDecimal totalPrice;
+        private BigDecimal totalSoldFor;
+
+        @Override
+        public void row(ResultSet result, Writer out) throws IOException, SQLException {
+            String owner = result.getString("owner_email");
+            if (seller != null && !seller.equals(owner)) {
+                subtotal(out);
+            }
+            if (seller == null) {
+                seller = owner;
+                sellerName = result.getString("owner_name");
+                sellerItems = result.getInt("seller_items");
+                sellerPrice = money(result, "seller_price");
+                sellerSoldFor = money(result, "seller_sold_for");
+            }
+            if (totalPrice == null) {
+                totalItems = result.getInt("total_items");
+                totalPrice = money(result, "total_price");
+                totalSoldFor = money(result, "total_sold_for");
+            }
+            item(result, out);
+        }
+
+        private void subtotal(Writer out) throws IOException {
+            subtotal(seller, sellerName, sellerItems, sellerPrice, sellerSoldFor, out);
+            seller = null;
+        }
+
+        @Override
+        public void finish(Writer out) throws IOException {
+            if (seller != null) {
+                subtotal(out);
+            }
+            if (totalPrice == null) {
+                total(0, BigDecimal.ZERO.setScale(2), BigDecimal.ZERO.setScale(2), out);
+            } else {
+                total(totalItems, totalPrice, totalSoldFor, out);
+            }
+        }
+
+        abstract void item(ResultSet result, Writer out) throws IOException, SQLException;
+
+        abstract void subtotal(String seller, String sellerName, int items, BigDecimal price,
+                               BigDecimal soldFor, Writer out) throws IOException;
+
+        abstract void total(int items, BigDecimal price, BigDecimal soldFor, Writer out)
+                throws IOException;
+    }
+
+    private static class StatementsCsv extends Statements {
+        private CsvWriter csv;
+
+        @Override
+        public void start(Writer out) throws IOException {
+            csv = new CsvWriter(out);
+            csv.write("line_type", "seller_email", "seller_name", "item_id", "item_name",
+                    "description", "price", "sold_for", "transaction_id", "sold_at",
+                    "sold_to", "items");
+        }
+
+        @Override
+        void item(ResultSet result, Writer out) throws IOException, SQLException {
+            csv.write("item", result.getString("owner_email"), result.getString("owner_name"),
+                    result.getInt("item_id"), result.getString("item_name"),
+                    result.getString("description"), money(money(result, "price")),
+                    money(money(result, "sold_for")), result.getInt("transaction_id"),
+                    time(result.getTimestamp("sold_at")), result.getString("sold_to"), null);
+        }
+
+        @Override
+        void subtotal(String seller, String sellerName, int items, BigDecimal price,
+                      BigDecimal soldFor, Writer out) throws IOException {
+            csv.write("subtotal", seller, sellerName, null, null, null, money(price),
+                    money(soldFor), null, null, null, items);
+        }
+
+        @Override
+        void total(int items, BigDecimal price, BigDecimal soldFor, Writer out)
+                throws IOException {
+            csv.write("total", null, null, null, null, null, money(price), money(soldFor),
+                    null, null, null, items);
+        }
+    }
+
+    private static class StatementsNdjson extends Statements {
+        @Override
+        public void start(Writer out) {
+        }
+
+        @Override
+        void item(ResultSet result, Writer out) throws IOException, SQLException {
+            ObjectNode line = Json.newObject();
+            line.put("type", "item");
+            line.put("sellerEmail", result.getString("owner_email"));
+            line.put("sellerName", result.getString("owner_name"));
+            line.put("itemId", result.getInt("item_id"));
+            line.put("itemName", result.getString("item_name"));
+            line.put("description", result.getString("description"));
+            line.put("price", money(result, "price"));
+            line.put("soldFor", money(result, "sold_for"));
+            line.put("transactionId", result.getInt("transaction_id"));
+            line.put("soldAt", time(result.getTimestamp("sold_at")));
+            line.put("soldTo", result.getString("sold_to"));
+            writeLine(line, out);
+        }
+
+        @Override
+        void subtotal(String seller, String sellerName, int items, BigDecimal price,
+                      BigDecimal soldFor, Writer out) throws IOException {
+            ObjectNode line = Json.newObject();
+            line.put("type", "subtotal");
+            line.put("sellerEmail", seller);
+            line.put("sellerName", sellerName);
+            line.put("items", items);
+            line.put("price", price);
+            line.put("soldFor", soldFor);
+            writeLine(line, out);
+        }
+
+        @Override
+        void total(int items, BigDecimal price, BigDecimal soldFor, Writer out)
+                throws IOException {
+            ObjectNode line = Json.newObject();
+            line.put("type", "total");
+            line.put("items", items);
+            line.put("price", price);
+            line.put("soldFor", soldFor);
+            writeLine(line, out);
+        }
+
+        private static void writeLine(ObjectNode line, Writer out) throws IOException {
+            out.write(Json.stringify(line));
+            out.write('\n');
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package services;
+
+import lib.Histogram;
+import lib.Prometheus;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.inject.*;
+
+/**
+ * Request latency and status counts per route pattern from conf/routes,
+ * plus the number of requests in flight. Recording only reads existing map
+ * entries and bumps striped counters, so after each route's first request
+ * it takes no locks and allocates nothing.
+ */
+@Singleton
+public class RequestMetrics {
+
+    /**
+     * Route label for requests that didn't match any route.
+     */
+    public static final String UNMATCHED = "unmatched";
+
+    /**
+     * Method label for anything but the standard methods, since clients can
+     * send any token as a method and each would otherwise be its own series.
+     */
+    public static final String OTHER_METHOD = "OTHER";
+
+    private static final Set<String> METHODS = new HashSet<>(Arrays.asList(
+            "GET", "POST", "PUT", "DELETE", "PATCH", "HEAD", "OPTIONS"));
+
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Route>> routes =
+            new ConcurrentHashMap<>();
+    private final LongAdder inFlight = new LongAdder();
+
+    /**
+     * Marks a request as started.
+     */
+    public void started() {
+        inFlight.increment();
+    }
+
+    /**
+     * Marks a request as finished and records its outcome.
+     *
+     * @param method HTTP method of the request
+     * @param pattern route pattern, or null if no route matched
+     * @param status response status code
+     * @param nanos time from request to response headers
+     */
+    public void finished(String method, String pattern, int status, long nanos) {
+        inFlight.decrement();
+        route(METHODS.contains(method) ? method : OTHER_METHOD,
+                pattern == null ? UNMATCHED : pattern).record(status, nanos);
+    }
+
+    private Route route(String method, String pattern) {
+        ConcurrentHashMap<String, Route> byPattern = routes.get(method);
+        if (byPattern == null) {
+            byPattern = routes.computeIfAbsent(method, m -> new ConcurrentHashMap<>());
+        }
+        Route route = byPattern.get(pattern);
+        if (route == null) {
+            route = byPattern.computeIfAbsent(pattern, p -> new Route());
+        }
+        return route;
+    }
+
+    /**
+     * Writes every request metric in Prometheus text format.
+     *
+     * @param out where to write
+     */
+    public void write(StringBuilder out) {
+        Prometheus.header(out, "http_requests_in_flight", "gauge",
+                "Requests currently being handled.");
+        Prometheus.sample(out, "http_requests_in_flight", new String[0], inFlight.sum());
+
+        Prometheus.header(out, "http_requests_total", "counter",
+                "Requests handled, by route and status.");
+        for (Map.Entry<String, ConcurrentHashMap<String, Route>> method : routes.entrySet()) {
+            for (Map.Entry<String, Route> route : method.getValue().entrySet()) {
+                AtomicReferenceArray<LongAdder> statuses = route.getValue().statuses;
+                for (int i = 0; i < statuses.length(); i++) {
+                    LongAdder count = statuses.get(i);
+                    if (count != null) {
+                        Prometheus.sample(out, "http_requests_total", new String[] {
+                            "method", method.getKey(), "route", route.getKey(),
+                            "status", Integer.toString(Route.MIN_STATUS + i)}, count.sum());
+                    }
+                }
+            }
+        }
+
+        Prometheus.header(out, "http_request_duration_seconds", "histogram",
+                "Time from request to response headers, by route.");
+        for (Map.Entry<String, ConcurrentHashMap<String, Route>> method : routes.entrySet()) {
+            for (Map.Entry<String, Route> route : method.getValue().entrySet()) {
+                Prometheus.histogram(out, "http_request_duration_seconds", new String[] {
+                    "method", method.getKey(), "route", route.getKey()},
+                        route.getValue().latency);
+            }
+        }
+    }
+
+    /**
+     * Metrics for one route.
+     */
+    private static class Route {
+        static final int MIN_STATUS = 100;
+        static final int MAX_STATUS = 599;
+
+        final Histogram latency = new Histogram();
+        final AtomicReferenceArray<LongAdder> statuses =
+                new AtomicReferenceArray<>(MAX_STATUS - MIN_STATUS + 1);
+
+        void record(int status, long nanos) {
+            latency.record(nanos);
+            int index = Math.min(MAX_STATUS, Math.max(MIN_STATUS, status)) - MIN_STATUS;
+            LongAdder count = statuses.get(index);
+            if (count == null) {
+                statuses.compareAndSet(index, null, new LongAdder());
+                count = statuses.get(index);
+            }
+            count.increment();
+        }
+    }
+}
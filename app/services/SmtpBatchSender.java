@@ -0,0 +1,101 @@
+package services;
+
+import models.MailOutbox;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Consumer;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Sends a batch of outbox messages over a single SMTP connection, instead
+ * of opening a new connection for every message like the MailerClient.
+ */
+public class SmtpBatchSender {
+
+    private final Session session;
+    private final String host;
+    private final int port;
+    private final String user;
+    private final String password;
+
+    /**
+     * @param host SMTP server host
+     * @param port SMTP server port
+     * @param tls whether to upgrade the connection with STARTTLS
+     * @param user SMTP user, or null for no authentication
+     * @param password SMTP password, or null for no authentication
+     */
+    public SmtpBatchSender(String host, int port, boolean tls, String user, String password) {
+        Properties props = new Properties();
+        props.put("mail.smtp.host", host);
+        props.put("mail.smtp.port", Integer.toString(port));
+        props.put("mail.smtp.starttls.enable", Boolean.toString(tls));
+        props.put("mail.smtp.auth", Boolean.toString(user != null));
+        props.put("mail.smtp.connectiontimeout", "10000");
+        props.put("mail.smtp.timeout", "30000");
+        this.session = Session.getInstance(props);
+        this.host = host;
+        this.port = port;
+        this.user = user;
+        this.password = password;
+    }
+
+    /**
+     * Sends every message in the batch over one connection.
+     *
+     * @param batch messages to send
+     * @return failures keyed by message id; messages not present were sent
+     * @throws MessagingException if the connection itself can't be made, in
+     *         which case nothing was sent
+     */
+    public Map<Integer, Exception> send(List<MailOutbox.Message> batch)
+            throws MessagingException {
+        return send(batch, message -> { });
+    }
+
+    /**
+     * Sends every message in the batch over one connection, calling back
+     * before each message is sent.
+     *
+     * @param batch messages to send
+     * @param beforeEach called with each message just before it is sent
+     * @return failures keyed by message id; messages not present were sent
+     * @throws MessagingException if the connection itself can't be made, in
+     *         which case nothing was sent
+     */
+    public Map<Integer, Exception> send(List<MailOutbox.Message> batch,
+                                        Consumer<MailOutbox.Message> beforeEach)
+            throws MessagingException {
+        Map<Integer, Exception> failures = new LinkedHashMap<>();
+        Transport transport = session.getTransport("smtp");
+        transport.connect(host, port, user, password);
+        try {
+            for (MailOutbox.Message message : batch) {
+                beforeEach.accept(message);
+                try {
+                    MimeMessage mime = new MimeMessage(session);
+                    mime.setFrom(new InternetAddress(message.sender));
+                    mime.setRecipients(Message.RecipientType.TO,
+                            InternetAddress.parse(String.join(",", message.recipients)));
+                    mime.setSubject(message.subject, "UTF-8");
+                    mime.setText(message.body, "UTF-8");
+                    mime.saveChanges();
+                    transport.sendMessage(mime, mime.getAllRecipients());
+                } catch (MessagingException e) {
+                    failures.put(message.id, e);
+                }
+            }
+        } finally {
+            transport.close();
+        }
+        return failures;
+    }
+}
@@ -0,0 +1,185 @@
+package services;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.SqlRow;
+import models.SaleDailyRollup;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.inject.*;
+
+/**
+ * Periodically reconciles the stored num_items and value of recent
+ * transactions against the items actually linked to them. Totals are
+ * maintained with incremental updates, so this only catches drift from
+ * manual edits or failed writes; affected sales get their daily rollup
+ * rebuilt.
+ *
+ * Only transactions created within garagebuddy.totals.lookback are
+ * scanned. Each suspect is then locked and recounted in its own database
+ * transaction before being repaired, so a checkout committing mid-scan is
+ * never overwritten with a stale sum. Verification runs on its own thread
+ * rather than the actor dispatcher, and a run still going when the next is
+ * due makes that one skip.
+ *
+ * This class is registered as an eager singleton in the {@link Module}
+ * class, and reads its interval from garagebuddy.totals.verifyInterval.
+ */
+@Singleton
+public class TransactionTotalsVerifier {
+
+    /**
+     * Finds recent transactions whose totals disagree with their items.
+     * Read without locks, so it can report false positives; each one is
+     * checked again under lock.
+     */
+    private static final String SUSPECTS_SQL = "SELECT t.id "
+            + "FROM transactions t LEFT JOIN items i ON i.transaction_id = t.id "
+            + "WHERE t.created_at >= :since "
+            + "GROUP BY t.id, t.num_items, t.value "
+            + "HAVING coalesce(t.num_items, 0) <> count(i.id) "
+            + "OR round(coalesce(t.value, 0), 2) "
+            + "<> round(CAST(coalesce(sum(i.price), 0) AS numeric), 2);";
+
+    private static final String LOCK_SQL = "SELECT num_items, value, sale_id "
+            + "FROM transactions WHERE id = :id FOR UPDATE;";
+
+    private static final String RECOUNT_SQL = "SELECT count(id) AS num_items, "
+            + "round(CAST(coalesce(sum(price), 0) AS numeric), 2) AS value "
+            + "FROM items WHERE transaction_id = :id;";
+
+    private static final String REPAIR_SQL = "UPDATE transactions "
+            + "SET num_items = :numItems, value = :value WHERE id = :id;";
+
+    private final long lookbackMillis;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final Cancellable schedule;
+
+    @Inject
+    public TransactionTotalsVerifier(ActorSystem actorSystem, Configuration configuration,
+                                     ApplicationLifecycle appLifecycle) {
+        Long interval = configuration.getMilliseconds("garagebuddy.totals.verifyInterval");
+        FiniteDuration every = Duration.create(interval == null ? 600000L : interval,
+                TimeUnit.MILLISECONDS);
+        this.lookbackMillis = configuration.getMilliseconds("garagebuddy.totals.lookback",
+                TimeUnit.DAYS.toMillis(2));
+        this.schedule = actorSystem.scheduler().schedule(every, every, this::verifyInBackground,
+                actorSystem.dispatcher());
+
+        appLifecycle.addStopHook(() -> {
+            schedule.cancel();
+            worker.shutdown();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Starts a verification on the worker thread unless one is running.
+     */
+    private void verifyInBackground() {
+        if (!running.compareAndSet(false, true)) {
+            Logger.warn("Transaction totals verification still running; skipping.");
+            return;
+        }
+        worker.execute(() -> {
+            try {
+                verify();
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    /**
+     * Repairs any drifted totals on recent transactions.
+     *
+     * @return how many transactions were repaired
+     */
+    public int verify() {
+        try {
+            Timestamp since = new Timestamp(System.currentTimeMillis() - lookbackMillis);
+            List<SqlRow> suspects = Ebean.createSqlQuery(SUSPECTS_SQL)
+                    .setParameter("since", since).findList();
+
+            Set<Integer> sales = new HashSet<>();
+            int repaired = 0;
+            for (SqlRow suspect : suspects) {
+                Integer saleId = repair(suspect.getInteger("id"));
+                if (saleId != null) {
+                    repaired++;
+                    if (saleId != 0) {
+                        sales.add(saleId);
+                    }
+                }
+            }
+            for (Integer saleId : sales) {
+                SaleDailyRollup.rebuild(saleId);
+            }
+            return repaired;
+        } catch (RuntimeException e) {
+            Logger.error("Transaction totals verification failed.", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Locks a transaction, recounts its items and rewrites its totals if
+     * they still disagree. Checkouts update the transaction row after its
+     * items, so while the lock is held no committed item change is missing
+     * from the recount, and uncommitted ones still apply their own delta.
+     *
+     * @param id transaction id
+     * @return the transaction's sale id (0 if it has none) if it was
+     *         repaired, otherwise null
+     */
+    private Integer repair(int id) {
+        com.avaje.ebean.Transaction txn = Ebean.beginTransaction();
+        try {
+            SqlRow stored = Ebean.createSqlQuery(LOCK_SQL).setParameter("id", id).findUnique();
+            if (stored == null) {
+                return null;
+            }
+            SqlRow actual = Ebean.createSqlQuery(RECOUNT_SQL).setParameter("id", id)
+                    .findUnique();
+
+            int numItems = actual.getInteger("num_items");
+            BigDecimal value = actual.getBigDecimal("value").setScale(2, RoundingMode.HALF_UP);
+            Integer storedItems = stored.getInteger("num_items");
+            BigDecimal storedValue = stored.getBigDecimal("value");
+            if ((storedItems == null ? 0 : storedItems) == numItems
+                    && (storedValue == null ? BigDecimal.ZERO : storedValue)
+                            .setScale(2, RoundingMode.HALF_UP).compareTo(value) == 0) {
+                return null;
+            }
+
+            Ebean.createSqlUpdate(REPAIR_SQL)
+                    .setParameter("numItems", numItems)
+                    .setParameter("value", value)
+                    .setParameter("id", id)
+                    .execute();
+            txn.commit();
+            Logger.warn("Repaired drifted totals on transaction " + id);
+            Integer saleId = stored.getInteger("sale_id");
+            return saleId == null ? 0 : saleId;
+        } finally {
+            txn.end();
+        }
+    }
+}
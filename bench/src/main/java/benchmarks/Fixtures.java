@@ -0,0 +1,98 @@
+package benchmarks;
+
+import models.Item;
+import models.Sale;
+import models.User;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Builds synthetic sales, users and items in memory for benchmarks, without
+ * a database. Data is generated from a fixed seed so every run measures the
+ * same inputs.
+ */
+public final class Fixtures {
+
+    private static final String[] WORDS = {
+        "Vintage", "Oak", "Lamp", "Bicycle", "Record", "Blue", "Chair", "Mirror",
+        "Toaster", "Quilt", "Guitar", "Set", "Box", "Brass", "Camera", "Table"
+    };
+
+    /**
+     * Non-instantiable helper.
+     */
+    private Fixtures() {
+    }
+
+    /**
+     * Creates a user without saving it. Hashes the password once, so call
+     * it from setup rather than from a benchmark.
+     *
+     * @param name display name and email prefix
+     * @return the user
+     */
+    public static User user(String name) {
+        return new User(name, name.toLowerCase() + "@gatech.edu", "password");
+    }
+
+    /**
+     * Creates a sale without saving it. The public constructor saves the
+     * sale, so this uses the no-argument constructor Ebean adds instead.
+     *
+     * @param id id to give the sale
+     * @param members emails mapped to their role in the sale
+     * @return the sale
+     */
+    public static Sale sale(int id, Map<String, Sale.Role> members) {
+        try {
+            java.lang.reflect.Constructor<Sale> constructor = Sale.class.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            Sale sale = constructor.newInstance();
+            sale.id = id;
+            sale.name = "Benchmark Sale " + id;
+            Map<String, Long> users = new HashMap<>();
+            for (Map.Entry<String, Sale.Role> member : members.entrySet()) {
+                users.put(member.getKey(), permit(member.getValue()));
+            }
+            sale.users = users;
+            return sale;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create a sale", e);
+        }
+    }
+
+    /**
+     * Creates items with varied names, prices and descriptions.
+     *
+     * @param count how many items to create
+     * @param creator user the items were added by
+     * @param seed seed for the generated values
+     * @return the items, with ids from 1
+     */
+    public static List<Item> items(int count, User creator, long seed) {
+        Random random = new Random(seed);
+        List<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " "
+                    + WORDS[random.nextInt(WORDS.length)];
+            double price = Math.round(random.nextDouble() * 20000) / 100.0;
+            Item item = new Item(creator, name, price,
+                    "A " + name.toLowerCase() + " in good condition", random.nextBoolean());
+            item.id = i + 1;
+            item.purchased = random.nextInt(4) == 0;
+            items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * Roles are declared in permit order, from GUEST(1) to SUPER_USER(7).
+     */
+    private static long permit(Sale.Role role) {
+        return role.ordinal() + 1;
+    }
+}
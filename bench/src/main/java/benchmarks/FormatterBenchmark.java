@@ -0,0 +1,41 @@
+package benchmarks;
+
+import lib.Formatter;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the currency and time formatters every catalog, report and
+ * transaction page calls once per row.
+ *
+ * Run with: sbt "bench/jmh:run FormatterBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatterBenchmark {
+
+    private final Double price = 1234.5;
+    private final Integer wholePrice = 42;
+    private final LocalDateTime time = LocalDateTime.of(2016, 4, 9, 14, 35);
+
+    @Benchmark
+    public String currencyDouble() {
+        return Formatter.currency(price);
+    }
+
+    @Benchmark
+    public String currencyInteger() {
+        return Formatter.currency(wholePrice);
+    }
+
+    @Benchmark
+    public String time() {
+        return Formatter.time(time);
+    }
+}
@@ -0,0 +1,47 @@
+package benchmarks;
+
+import models.PasswordStorage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of creating and verifying password hashes across
+ * PBKDF2 variants and iteration counts, to weigh hash strength against
+ * login throughput when choosing garagebuddy.passwords settings.
+ *
+ * Run with: sbt "bench/jmh:run PasswordStorageBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordStorageBenchmark {
+
+    @Param({"sha1", "sha256"})
+    public String algorithm;
+
+    @Param({"64000", "128000", "256000"})
+    public int iterations;
+
+    private final char[] password = "correct horse battery staple".toCharArray();
+
+    private String hash;
+
+    @Setup
+    public void setUp() throws Exception {
+        hash = PasswordStorage.createHash(password, algorithm, iterations);
+    }
+
+    @Benchmark
+    public String createHash() throws Exception {
+        return PasswordStorage.createHash(password, algorithm, iterations);
+    }
+
+    @Benchmark
+    public boolean verifyPassword() throws Exception {
+        return PasswordStorage.verifyPassword(password, hash);
+    }
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import lib.Page;
+import models.Item;
+import models.Sale;
+import models.User;
+import org.openjdk.jmh.annotations.*;
+import play.mvc.Http;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rendering the sale catalog and print tags pages from in-memory
+ * items, without a running application or database. Templates read the
+ * flash from the current Http.Context, so each benchmark thread gets one.
+ *
+ * Run with: sbt "bench/jmh:run TemplateBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateBenchmark {
+
+    /**
+     * Items per page; 100 is garagebuddy.catalog.pageSize.
+     */
+    @Param({"10", "100"})
+    public int count;
+
+    private Sale sale;
+    private User admin;
+    private List<Item> rows;
+    private Page<Item> page;
+
+    @Setup
+    public void setUp() {
+        admin = Fixtures.user("Admin");
+        sale = Fixtures.sale(1, Collections.singletonMap(admin.email, Sale.Role.SALE_ADMIN));
+        rows = Fixtures.items(count, admin, 42L);
+        page = new Page<>(rows, "next", null);
+        Http.Context.current.set(new Http.Context(
+                new Http.RequestBuilder().uri("/sales/1/items")));
+    }
+
+    @TearDown
+    public void tearDown() {
+        Http.Context.current.remove();
+    }
+
+    @Benchmark
+    public String items() {
+        return views.html.sales.items.render(sale, page, "", admin).body();
+    }
+
+    @Benchmark
+    public String tags() {
+        return views.html.sales.tags.render(rows, admin, "next").body();
+    }
+}
@@ -0,0 +1,95 @@
+package models;
+
+import benchmarks.Fixtures;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures model helpers called per row or per permission check while
+ * rendering pages. Lives in the models package to reach the package-private
+ * {@link Item#formatTagPrice} and {@link Sale.Role#fromPermit}.
+ *
+ * Run with: sbt "bench/jmh:run ModelBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+    private final double price = 1234.5;
+
+    /**
+     * Every permit a sale member can have, plus 0 for non-members.
+     */
+    private final Long[] permits = {0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L};
+
+    @Benchmark
+    public String formatTagPrice() {
+        return Item.formatTagPrice(price);
+    }
+
+    @Benchmark
+    public void fromPermit(Blackhole blackhole) {
+        for (Long permit : permits) {
+            blackhole.consume(Sale.Role.fromPermit(permit));
+        }
+    }
+
+    @Benchmark
+    public Map<String, Sale.Role> getRoleMap() {
+        return Sale.getRoleMap();
+    }
+
+    /**
+     * Checks run against a sale by members in different roles.
+     */
+    @State(Scope.Benchmark)
+    public static class Permission {
+        @Param({"GUEST", "SELLER", "SALE_ADMIN"})
+        public Sale.Role role;
+
+        public User user;
+        public Sale sale;
+
+        @Setup
+        public void setUp() {
+            user = Fixtures.user("Member");
+            sale = Fixtures.sale(1, Collections.singletonMap(user.email, role));
+        }
+    }
+
+    @Benchmark
+    public boolean canAssignRole(Permission p) {
+        return Permissions.canAssignRole(p.sale, p.user);
+    }
+
+    @Benchmark
+    public boolean canSellItems(Permission p) {
+        return Permissions.canSellItems(p.sale, p.user);
+    }
+
+    /**
+     * Every check, as a page that shows or hides all sale actions makes.
+     */
+    @Benchmark
+    public void allChecks(Permission p, Blackhole blackhole) {
+        blackhole.consume(Permissions.canSetSuperUser(p.user));
+        blackhole.consume(Permissions.canUnlockProfile(p.user));
+        blackhole.consume(Permissions.canAssignRole(p.sale, p.user));
+        blackhole.consume(Permissions.canCloseSale(p.sale, p.user));
+        blackhole.consume(Permissions.canUpdateCatalog(p.sale, p.user));
+        blackhole.consume(Permissions.canUpdatePrices(p.sale, p.user));
+        blackhole.consume(Permissions.canAdvertise(p.sale, p.user));
+        blackhole.consume(Permissions.canPrintTags(p.sale, p.user));
+        blackhole.consume(Permissions.canSellItems(p.sale, p.user));
+        blackhole.consume(Permissions.canCreateReceipts(p.sale, p.user));
+        blackhole.consume(Permissions.canAccessFinances(p.sale, p.user));
+    }
+}
@@ -0,0 +1,28 @@
+# --- Daily sale activity rollup, maintained incrementally by models.SaleDailyRollup
+
+# --- !Ups
+
+create table sale_daily_rollup (
+  sale_id                       integer not null,
+  day                           date not null,
+  count                         integer not null default 0,
+  revenue                       decimal not null default '0.00',
+  items                         integer not null default 0,
+  constraint pk_sale_daily_rollup primary key (sale_id, day)
+);
+
+alter table sale_daily_rollup add constraint fk_sale_daily_rollup_sale_id foreign key (sale_id) references sales (id) on delete cascade on update restrict;
+
+insert into sale_daily_rollup (sale_id, day, count, revenue, items)
+  select sale_id, cast(date_trunc('day', created_at) as date), count(*),
+         coalesce(sum(value), 0), coalesce(sum(num_items), 0)
+  from transactions
+  where sale_id is not null
+  group by sale_id, cast(date_trunc('day', created_at) as date);
+
+
+# --- !Downs
+
+alter table if exists sale_daily_rollup drop constraint if exists fk_sale_daily_rollup_sale_id;
+
+drop table if exists sale_daily_rollup cascade;
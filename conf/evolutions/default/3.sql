@@ -0,0 +1,31 @@
+# --- Durable outbox for receipt emails, drained by services.MailDispatcher
+
+# --- !Ups
+
+create table mail_outbox (
+  id                            serial not null,
+  transaction_id                integer,
+  sender                        varchar(255) not null,
+  recipients                    text not null,
+  subject                       varchar(255) not null,
+  body                          text not null,
+  status                        varchar(16) not null default 'pending',
+  attempts                      integer not null default 0,
+  next_attempt_at               timestamp not null default now(),
+  claimed_at                    timestamp,
+  sent_at                       timestamp,
+  last_error                    text,
+  created_at                    timestamp not null default now(),
+  constraint pk_mail_outbox primary key (id)
+);
+
+alter table mail_outbox add constraint fk_mail_outbox_transaction_id foreign key (transaction_id) references transactions (id) on delete set null on update restrict;
+create index ix_mail_outbox_status_next_attempt_at on mail_outbox (status, next_attempt_at);
+
+
+# --- !Downs
+
+alter table if exists mail_outbox drop constraint if exists fk_mail_outbox_transaction_id;
+drop index if exists ix_mail_outbox_status_next_attempt_at;
+
+drop table if exists mail_outbox cascade;
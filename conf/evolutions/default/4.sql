@@ -0,0 +1,10 @@
+# --- Index backing keyset pagination of sale catalogs by (name, id)
+
+# --- !Ups
+
+create index ix_items_sale_id_name_id on items (sale_id, name, id);
+
+
+# --- !Downs
+
+drop index if exists ix_items_sale_id_name_id;
@@ -0,0 +1,10 @@
+# --- Functional index for case-insensitive user lookups by email
+
+# --- !Ups
+
+create index ix_users_lower_email on users (lower(email));
+
+
+# --- !Downs
+
+drop index if exists ix_users_lower_email;
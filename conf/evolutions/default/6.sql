@@ -0,0 +1,10 @@
+# --- Index letting the totals verifier scan only recent transactions
+
+# --- !Ups
+
+create index ix_transactions_created_at on transactions (created_at);
+
+
+# --- !Downs
+
+drop index if exists ix_transactions_created_at;
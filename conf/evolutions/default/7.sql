@@ -0,0 +1,15 @@
+# --- Settings chosen at runtime and shared by every node, e.g. password hash cost
+
+# --- !Ups
+
+create table app_settings (
+  name                          varchar(255) not null,
+  value                         varchar(255) not null,
+  created_at                    timestamp not null default now(),
+  constraint pk_app_settings primary key (name)
+);
+
+
+# --- !Downs
+
+drop table if exists app_settings cascade;
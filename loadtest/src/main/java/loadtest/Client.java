@@ -0,0 +1,158 @@
+package loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A logged in user's view of the app: sends requests with their session
+ * cookie and doesn't follow redirects, so journeys can read where a form
+ * post sent them. Connections are kept alive by the JDK between requests.
+ */
+public final class Client {
+
+    private static final String SESSION_COOKIE = "PLAY_SESSION";
+
+    private final String baseUrl;
+    private final int timeoutMillis;
+    private final Stats stats;
+    private volatile String session;
+
+    /**
+     * @param baseUrl where the app is running
+     * @param timeoutMillis connect and read timeout
+     * @param stats where requests are recorded, or null not to record them
+     */
+    public Client(String baseUrl, int timeoutMillis, Stats stats) {
+        this.baseUrl = baseUrl;
+        this.timeoutMillis = timeoutMillis;
+        this.stats = stats;
+    }
+
+    /**
+     * A response, read in full.
+     */
+    public static final class Response {
+        public final int status;
+        public final String location;
+        public final String body;
+
+        Response(int status, String location, String body) {
+            this.status = status;
+            this.location = location;
+            this.body = body;
+        }
+
+        /**
+         * @return whether the app answered with a page or a redirect
+         */
+        public boolean ok() {
+            return status >= 200 && status < 400;
+        }
+    }
+
+    public Response get(String step, String path) {
+        return send(step, "GET", path, null, null);
+    }
+
+    /**
+     * Posts a form.
+     *
+     * @param step name to record the request under, or null not to record it
+     * @param path path to post to
+     * @param fields field names and values as name, value, name, value...
+     * @return the response
+     */
+    public Response post(String step, String path, String... fields) {
+        StringBuilder form = new StringBuilder();
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            if (form.length() > 0) {
+                form.append('&');
+            }
+            form.append(encode(fields[i])).append('=').append(encode(fields[i + 1]));
+        }
+        return send(step, "POST", path, "application/x-www-form-urlencoded",
+                form.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Response post(String step, String path, String contentType, byte[] body) {
+        return send(step, "POST", path, contentType, body);
+    }
+
+    private Response send(String step, String method, String path, String contentType,
+                          byte[] body) {
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = exchange(method, path, contentType, body);
+        } catch (IOException e) {
+            response = new Response(0, null, e.toString());
+        }
+        if (stats != null && step != null) {
+            stats.record(step, System.nanoTime() - start, response.ok());
+        }
+        return response;
+    }
+
+    private Response exchange(String method, String path, String contentType, byte[] body)
+            throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path)
+                .openConnection();
+        connection.setInstanceFollowRedirects(false);
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        connection.setRequestMethod(method);
+        if (session != null) {
+            connection.setRequestProperty("Cookie", session);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", contentType);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+
+        int status = connection.getResponseCode();
+        List<String> cookies = connection.getHeaderFields().get("Set-Cookie");
+        if (cookies != null) {
+            for (String cookie : cookies) {
+                if (cookie.startsWith(SESSION_COOKIE + "=")) {
+                    session = cookie.substring(0, cookie.indexOf(';') > 0
+                            ? cookie.indexOf(';') : cookie.length());
+                }
+            }
+        }
+        // Read the body in full, errors included, so the connection is reused.
+        InputStream in = status >= 400 ? connection.getErrorStream()
+                : connection.getInputStream();
+        String text = "";
+        if (in != null) {
+            try (InputStream stream = in) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                for (int n; (n = stream.read(buffer)) != -1; ) {
+                    bytes.write(buffer, 0, n);
+                }
+                text = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }
+        return new Response(status, connection.getHeaderField("Location"), text);
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package loadtest;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Streams rows into a table with Postgres COPY in text format, buffering a
+ * chunk at a time so memory stays flat however many rows are written.
+ */
+final class CopyWriter implements AutoCloseable {
+
+    private static final int CHUNK = 256 * 1024;
+
+    private final CopyIn copy;
+    private final StringBuilder buffer = new StringBuilder(CHUNK + 4096);
+    private boolean rowStarted = false;
+    private long rows = 0;
+
+    /**
+     * Starts copying into a table.
+     *
+     * @param connection connection to copy on
+     * @param table table name
+     * @param columns column names, in the order values are written
+     */
+    CopyWriter(Connection connection, String table, String columns) throws SQLException {
+        this.copy = connection.unwrap(PGConnection.class).getCopyAPI()
+                .copyIn("COPY " + table + " (" + columns + ") FROM STDIN");
+    }
+
+    /**
+     * Writes the next value of the current row; null writes SQL NULL.
+     */
+    CopyWriter value(Object value) {
+        if (rowStarted) {
+            buffer.append('\t');
+        }
+        rowStarted = true;
+        if (value == null) {
+            buffer.append("\\N");
+            return this;
+        }
+        String text = value.toString();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\': buffer.append("\\\\"); break;
+                case '\t': buffer.append("\\t"); break;
+                case '\n': buffer.append("\\n"); break;
+                case '\r': buffer.append("\\r"); break;
+                default: buffer.append(c);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Ends the current row.
+     */
+    void endRow() throws SQLException {
+        buffer.append('\n');
+        rowStarted = false;
+        rows++;
+        if (buffer.length() >= CHUNK) {
+            flush();
+        }
+    }
+
+    private void flush() throws SQLException {
+        byte[] bytes = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        copy.writeToCopy(bytes, 0, bytes.length);
+        buffer.setLength(0);
+    }
+
+    /**
+     * @return rows written so far
+     */
+    long rows() {
+        return rows;
+    }
+
+    /**
+     * Sends the remaining rows and finishes the COPY.
+     */
+    @Override
+    public void close() throws SQLException {
+        if (!copy.isActive()) {
+            return;
+        }
+        flush();
+        copy.endCopy();
+    }
+}
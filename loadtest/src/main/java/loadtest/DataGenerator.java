@@ -0,0 +1,437 @@
+package loadtest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.spec.KeySpec;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.IntStream;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Bulk-loads synthetic users, sales, items and transactions straight into
+ * the database with COPY, for performance work at realistic volume. Every
+ * value comes from the seed, so on an empty database the same settings
+ * load the same rows; ids come from the tables' sequences.
+ *
+ * Each sale gets members in its users JSON with a realistic mix of roles,
+ * items whose prices follow a long-tailed distribution per kind of item,
+ * and a share of those items sold in transactions spread over the sale's
+ * opening hours. Daily rollups are filled in for the new sales.
+ *
+ * Run with: sbt "loadtest/runMain loadtest.DataGenerator sales=100 items=100000"
+ */
+public final class DataGenerator {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("url", "jdbc:postgresql://localhost/garagebuddy");
+        DEFAULTS.put("user", "");
+        DEFAULTS.put("password", "");
+        DEFAULTS.put("seed", "1");
+        DEFAULTS.put("users", "1000");
+        DEFAULTS.put("sales", "10");
+        DEFAULTS.put("members", "50");
+        DEFAULTS.put("items", "100000");
+        DEFAULTS.put("soldFraction", "0.4");
+        DEFAULTS.put("days", "2");
+    }
+
+    /**
+     * Password every generated user logs in with.
+     */
+    private static final String PASSWORD = "password";
+
+    /**
+     * Kinds of item, each with the typical garage sale price of one.
+     */
+    private static final String[] NOUNS = {
+        "Lamp", "Dresser", "Mug", "Bicycle", "Record", "Book", "Chair", "Table", "Mirror",
+        "Toaster", "Quilt", "Guitar", "Camera", "Rug", "Kettle", "Vase", "Puzzle", "Jacket",
+        "Skillet", "Stroller", "Bookshelf", "Board Game", "Desk", "Blender", "Picture Frame"
+    };
+    private static final double[] TYPICAL_PRICES = {
+        12, 80, 2, 60, 5, 2, 20, 45, 25, 8, 25, 90, 40, 30, 6, 7, 3, 15, 10, 35, 30, 6, 50,
+        12, 4
+    };
+    private static final String[] ADJECTIVES = {
+        "Vintage", "Antique", "Blue", "Red", "Oak", "Brass", "Small", "Large", "Retro",
+        "Handmade", "Leather", "Ceramic", "Glass", "Wooden", "Kids'", "Like-new", "Folding",
+        "Green", "Cast Iron", "Mid-century"
+    };
+    private static final String[] CONDITIONS = {
+        "Works great.", "Some wear, still sturdy.", "Barely used.", "Needs a little love.",
+        "From a smoke-free home.", "Original box included.", "Minor scratches."
+    };
+    private static final String[] FIRST_NAMES = {
+        "Ava", "Ben", "Chloe", "Diego", "Emma", "Finn", "Grace", "Hiro", "Isla", "Jamal",
+        "Kate", "Liam", "Maya", "Noah", "Olivia", "Priya", "Quinn", "Ravi", "Sofia", "Tom"
+    };
+    private static final String[] LAST_NAMES = {
+        "Anderson", "Brown", "Chen", "Davis", "Evans", "Garcia", "Hughes", "Ito", "Johnson",
+        "Kim", "Lopez", "Miller", "Nguyen", "Okafor", "Patel", "Reyes", "Smith", "Walker"
+    };
+
+    /**
+     * Sale roles by permit, as stored in a sale's users JSON, with the share
+     * of members given each: guests, book keepers, cashiers, clerks, sellers.
+     */
+    private static final int[] MEMBER_PERMITS = {1, 2, 3, 4, 5};
+    private static final double[] MEMBER_SHARES = {0.2, 0.1, 0.3, 0.1, 0.3};
+    private static final int SALE_ADMIN = 6;
+
+    /**
+     * Hours a sale is open each day.
+     */
+    private static final int OPENS = 8;
+    private static final int CLOSES = 16;
+
+    private final Settings settings;
+    private final long seed;
+    private final Connection connection;
+    private final String[] emails;
+
+    private DataGenerator(Settings settings, Connection connection) {
+        this.settings = settings;
+        this.seed = settings.longInteger("seed");
+        this.connection = connection;
+        this.emails = new String[settings.integer("users")];
+        for (int i = 0; i < emails.length; i++) {
+            emails[i] = "gen" + seed + "-" + i + "@gatech.edu";
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = new Settings(DEFAULTS, args);
+        System.out.println("Settings: " + settings);
+        Properties login = new Properties();
+        if (!settings.string("user").isEmpty()) {
+            login.setProperty("user", settings.string("user"));
+            login.setProperty("password", settings.string("password"));
+        }
+        try (Connection connection = DriverManager.getConnection(settings.string("url"), login)) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                // Losing the tail of a load on a crash is fine; waiting on fsync isn't.
+                statement.execute("SET synchronous_commit = off");
+            }
+            new DataGenerator(settings, connection).run();
+        }
+    }
+
+    private void run() throws Exception {
+        long start = System.nanoTime();
+        users();
+        long items = 0;
+        for (int sale = 0; sale < settings.integer("sales"); sale++) {
+            items += sale(sale);
+        }
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ANALYZE users");
+            statement.execute("ANALYZE sales");
+            statement.execute("ANALYZE items");
+            statement.execute("ANALYZE transactions");
+        }
+        connection.commit();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Loaded %d items in %.1fs (%.0f items/s)%n", items, seconds,
+                items / seconds);
+    }
+
+    /**
+     * Loads the pool of users that sale members are drawn from, unless a
+     * previous run with this seed already did.
+     */
+    private void users() throws Exception {
+        try (PreparedStatement exists = connection.prepareStatement(
+                "SELECT 1 FROM users WHERE email = ?")) {
+            exists.setString(1, emails[0]);
+            try (ResultSet rows = exists.executeQuery()) {
+                if (rows.next()) {
+                    System.out.println("Reusing users from an earlier run with seed " + seed);
+                    return;
+                }
+            }
+        }
+        Random random = random(-1, 0);
+        String hash = passwordHash(random);
+        try (CopyWriter copy = new CopyWriter(connection, "users",
+                "email, name, password, is_super_user, login_attempts")) {
+            for (String email : emails) {
+                copy.value(email)
+                        .value(pick(random, FIRST_NAMES) + " " + pick(random, LAST_NAMES))
+                        .value(hash).value(false).value(0).endRow();
+            }
+        }
+        connection.commit();
+        System.out.println("Loaded " + emails.length + " users; their password is \""
+                + PASSWORD + "\"");
+    }
+
+    /**
+     * Loads one sale with its members, items and transactions, in one
+     * database transaction.
+     *
+     * @param index which sale of the run this is
+     * @return how many items were loaded
+     */
+    private int sale(int index) throws SQLException {
+        long start = System.nanoTime();
+        int itemCount = settings.integer("items");
+        double soldFraction = settings.decimal("soldFraction");
+
+        // Members: a sale admin, then a mix of roles, drawn without repeats.
+        Random people = random(index, 1);
+        int memberCount = Math.max(1, Math.min(settings.integer("members"), emails.length));
+        int[] order = new int[emails.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        String[] members = new String[memberCount];
+        int[] permits = new int[memberCount];
+        for (int i = 0; i < memberCount; i++) {
+            int swap = i + people.nextInt(order.length - i);
+            int chosen = order[swap];
+            order[swap] = order[i];
+            order[i] = chosen;
+            members[i] = emails[chosen];
+            permits[i] = i == 0 ? SALE_ADMIN : MEMBER_PERMITS[weighted(people, MEMBER_SHARES)];
+        }
+        int[] sellers = withPermits(permits, 3, 5, SALE_ADMIN);
+        int[] creators = withPermits(permits, 4, 5, SALE_ADMIN);
+
+        LocalDate firstDay = LocalDate.of(2016, 1, 2).plusWeeks(index)
+                .plusDays(people.nextInt(7));
+        int days = 1 + people.nextInt(Math.max(1, settings.integer("days")));
+        LocalDateTime opens = firstDay.atTime(OPENS, 0);
+        LocalDateTime closes = firstDay.plusDays(days - 1).atTime(CLOSES, 0);
+
+        int saleId;
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO sales (name, start_date, end_date, is_closed, users) "
+                + "VALUES (?, ?, ?, ?, CAST(? AS jsonb)) RETURNING id")) {
+            insert.setString(1, pick(people, LAST_NAMES) + " Family Garage Sale #" + (index + 1));
+            insert.setTimestamp(2, Timestamp.valueOf(opens));
+            insert.setTimestamp(3, Timestamp.valueOf(closes));
+            insert.setBoolean(4, false);
+            insert.setString(5, usersJson(members, permits));
+            try (ResultSet rows = insert.executeQuery()) {
+                rows.next();
+                saleId = rows.getInt(1);
+            }
+        }
+
+        // First pass: what each item is, what it costs and which
+        // transaction, if any, sells it. Transactions are sized 1 to a
+        // handful of items, most of them small.
+        Random pricing = random(index, 2);
+        byte[] kinds = new byte[itemCount];
+        float[] prices = new float[itemCount];
+        int[] soldIn = new int[itemCount];
+        int transactionCount = 0;
+        int openSize = 0;
+        int openTarget = 0;
+        for (int i = 0; i < itemCount; i++) {
+            int kind = pricing.nextInt(NOUNS.length);
+            kinds[i] = (byte) kind;
+            prices[i] = (float) price(pricing, TYPICAL_PRICES[kind]);
+            soldIn[i] = -1;
+            if (pricing.nextDouble() < soldFraction) {
+                if (openSize == openTarget) {
+                    transactionCount++;
+                    openSize = 0;
+                    openTarget = 1 + geometric(pricing, 0.45);
+                }
+                soldIn[i] = transactionCount - 1;
+                openSize++;
+            }
+        }
+        double[] values = new double[transactionCount];
+        int[] sizes = new int[transactionCount];
+        for (int i = 0; i < itemCount; i++) {
+            if (soldIn[i] >= 0) {
+                values[soldIn[i]] += prices[i];
+                sizes[soldIn[i]]++;
+            }
+        }
+
+        int[] transactionIds = nextIds("transactions_id_seq", transactionCount);
+        int[] transactionSellers = new int[transactionCount];
+        Random checkout = random(index, 3);
+        long openSeconds = (CLOSES - OPENS) * 3600L;
+        try (CopyWriter copy = new CopyWriter(connection, "transactions",
+                "id, created_at, customer_name, value, seller_email, sale_id, num_items")) {
+            for (int t = 0; t < transactionCount; t++) {
+                transactionSellers[t] = sellers[checkout.nextInt(sellers.length)];
+                LocalDateTime at = firstDay.plusDays(checkout.nextInt(days)).atTime(OPENS, 0)
+                        .plusSeconds((long) (checkout.nextDouble() * openSeconds));
+                copy.value(transactionIds[t]).value(Timestamp.valueOf(at))
+                        .value(pick(checkout, FIRST_NAMES) + " " + pick(checkout, LAST_NAMES))
+                        .value(Math.round(values[t] * 100) / 100.0)
+                        .value(members[transactionSellers[t]]).value(saleId).value(sizes[t])
+                        .endRow();
+            }
+        }
+
+        // Second pass: the rest of each item's details.
+        Random details = random(index, 4);
+        try (CopyWriter copy = new CopyWriter(connection, "items",
+                "created_by_email, sold_by_email, transaction_id, sale_id, name, description, "
+                + "price, minprice, purchased, sold_for, bidding, reserved_by_email, "
+                + "current_bid")) {
+            for (int i = 0; i < itemCount; i++) {
+                String noun = NOUNS[kinds[i]];
+                String name = pick(details, ADJECTIVES) + " " + noun;
+                double price = prices[i];
+                boolean sold = soldIn[i] >= 0;
+                copy.value(members[creators[details.nextInt(creators.length)]])
+                        .value(sold ? members[transactionSellers[soldIn[i]]] : null)
+                        .value(sold ? transactionIds[soldIn[i]] : null)
+                        .value(saleId)
+                        .value(name)
+                        .value(name + ". " + pick(details, CONDITIONS))
+                        .value(price)
+                        .value(Math.floor(price * 0.7 * 4) / 4)
+                        .value(sold)
+                        .value(sold ? price : 0.0)
+                        .value(price >= 50 && details.nextInt(4) == 0)
+                        .value(null)
+                        .value(0.0)
+                        .endRow();
+            }
+        }
+
+        try (PreparedStatement rollup = connection.prepareStatement(
+                "INSERT INTO sale_daily_rollup (sale_id, day, count, revenue, items) "
+                + "SELECT sale_id, CAST(date_trunc('day', created_at) AS date), count(*), "
+                + "coalesce(sum(value), 0), coalesce(sum(num_items), 0) "
+                + "FROM transactions WHERE sale_id = ? "
+                + "GROUP BY sale_id, CAST(date_trunc('day', created_at) AS date)")) {
+            rollup.setInt(1, saleId);
+            rollup.executeUpdate();
+        }
+        connection.commit();
+
+        System.out.printf("Sale %d: %d members, %d items, %d transactions in %.1fs%n",
+                saleId, memberCount, itemCount, transactionCount,
+                (System.nanoTime() - start) / 1e9);
+        return itemCount;
+    }
+
+    /**
+     * A random source for one part of one sale, so each part's values don't
+     * depend on how many numbers another part drew.
+     */
+    private Random random(int sale, int part) {
+        return new Random(seed * 1000003L + sale * 31L + part);
+    }
+
+    /**
+     * Reserves ids from a sequence.
+     */
+    private int[] nextIds(String sequence, int count) throws SQLException {
+        int[] ids = new int[count];
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT nextval('" + sequence + "') FROM generate_series(1, ?)")) {
+            select.setInt(1, count);
+            try (ResultSet rows = select.executeQuery()) {
+                for (int i = 0; rows.next(); i++) {
+                    ids[i] = rows.getInt(1);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * A garage sale price around the typical one for the kind of item: log
+     * normal, so most are near it and a few are worth far more, then
+     * rounded the way people price things.
+     */
+    private static double price(Random random, double typical) {
+        double price = typical * Math.exp(0.6 * random.nextGaussian());
+        if (price < 5) {
+            return Math.max(0.25, Math.round(price * 4) / 4.0);
+        } else if (price < 50) {
+            return Math.round(price);
+        }
+        return Math.round(price / 5) * 5.0;
+    }
+
+    /**
+     * Number of failures before the first success, at least 0.
+     */
+    private static int geometric(Random random, double success) {
+        int failures = 0;
+        while (random.nextDouble() >= success && failures < 20) {
+            failures++;
+        }
+        return failures;
+    }
+
+    private static int weighted(Random random, double[] shares) {
+        double roll = random.nextDouble();
+        for (int i = 0; i < shares.length - 1; i++) {
+            roll -= shares[i];
+            if (roll < 0) {
+                return i;
+            }
+        }
+        return shares.length - 1;
+    }
+
+    /**
+     * Positions of members holding any of the given permits.
+     */
+    private static int[] withPermits(int[] permits, int... wanted) {
+        return IntStream.range(0, permits.length)
+                .filter(i -> Arrays.stream(wanted).anyMatch(p -> p == permits[i]))
+                .toArray();
+    }
+
+    private static String usersJson(String[] members, int[] permits) {
+        StringBuilder json = new StringBuilder("{");
+        for (int i = 0; i < members.length; i++) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append('"').append(members[i]).append("\": ").append(permits[i]);
+        }
+        return json.append('}').toString();
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    /**
+     * Hashes the shared password the way models.PasswordStorage does, with
+     * a seeded salt so the hash is the same on every run.
+     */
+    private static String passwordHash(Random random) throws Exception {
+        byte[] salt = new byte[24];
+        random.nextBytes(salt);
+        int iterations = 64000;
+        KeySpec spec = new PBEKeySpec(PASSWORD.toCharArray(), salt, iterations, 18 * 8);
+        byte[] hash = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1")
+                .generateSecret(spec).getEncoded();
+        Base64.Encoder base64 = Base64.getEncoder();
+        return "sha1:" + iterations + ":" + hash.length + ":"
+                + new String(base64.encode(salt), StandardCharsets.US_ASCII) + ":"
+                + new String(base64.encode(hash), StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,85 @@
+package loadtest;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What each kind of user does on sale day. Each method is one journey,
+ * started at that journey's arrival rate; every request is recorded as a
+ * step named after the journey.
+ */
+final class Journeys {
+
+    private final SaleFixture sale;
+    private final int itemsPerTransaction;
+    private final int searchesPerVisit;
+
+    /**
+     * Next item for a cashier to sell, so cashiers don't race for the same
+     * items until the catalog runs out and wraps around.
+     */
+    private final AtomicInteger nextItem = new AtomicInteger();
+
+    Journeys(SaleFixture sale, Settings settings) {
+        this.sale = sale;
+        this.itemsPerTransaction = settings.integer("cashier.items");
+        this.searchesPerVisit = settings.integer("shopper.searches");
+    }
+
+    /**
+     * A cashier rings up a customer: opens a transaction, then scans items
+     * into it one at a time.
+     */
+    void cashier() {
+        Client cashier = pick(sale.cashiers);
+        Client.Response created = cashier.post("cashier: new transaction",
+                "/sales/" + sale.saleId + "/transactions/new",
+                "customerName", "Customer " + ThreadLocalRandom.current().nextInt(100000));
+        if (!created.ok() || created.location == null) {
+            return;
+        }
+        int transactionId = SaleFixture.idFrom(created, "/transactions/");
+        for (int i = 0; i < itemsPerTransaction; i++) {
+            int itemId = sale.itemIds[Math.floorMod(nextItem.getAndIncrement(),
+                    sale.itemIds.length)];
+            cashier.post("cashier: add item",
+                    "/transactions/" + transactionId + "/items/" + itemId + "/add");
+        }
+    }
+
+    /**
+     * A shopper searches the catalog a few times.
+     */
+    void shopper() {
+        Client shopper = pick(sale.shoppers);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < searchesPerVisit; i++) {
+            String word = SaleFixture.WORDS[random.nextInt(SaleFixture.WORDS.length)];
+            shopper.get("shopper: search items", "/sales/" + sale.saleId + "/items?q=" + word);
+        }
+    }
+
+    /**
+     * The sale admin's dashboard polls the sale's stats.
+     */
+    void admin() {
+        sale.admin.get("admin: poll stats", "/sales/" + sale.saleId + "/stats");
+    }
+
+    /**
+     * A shopper opens an item's bid page and outbids whoever is ahead.
+     */
+    void bidder() {
+        Client bidder = pick(sale.shoppers);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int itemId = sale.itemIds[random.nextInt(sale.itemIds.length)];
+        bidder.get("bidder: bid page", "/items/" + itemId + "/bid");
+        bidder.post("bidder: place bid", "/items/" + itemId + "/bid",
+                "bid", Integer.toString(1 + random.nextInt(500)));
+    }
+
+    private static Client pick(List<Client> clients) {
+        return clients.get(ThreadLocalRandom.current().nextInt(clients.size()));
+    }
+}
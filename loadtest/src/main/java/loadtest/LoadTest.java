@@ -0,0 +1,126 @@
+package loadtest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulates a sale-day rush against a running GarageBuddy: cashiers ringing
+ * up customers, shoppers searching the catalog, bidders bidding and the
+ * sale admin polling stats. Each journey starts at its own arrival rate
+ * (per second), with Poisson arrivals drawn from the seed, so the load is
+ * open and doesn't ease off when the app slows down. Arrivals that find
+ * every worker busy are dropped and counted rather than queued.
+ *
+ * Run with: sbt "loadtest/run baseUrl=http://localhost:9000 duration=120"
+ */
+public final class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("baseUrl", "http://localhost:9000");
+        DEFAULTS.put("duration", "60");
+        DEFAULTS.put("seed", "1");
+        DEFAULTS.put("workers", "200");
+        DEFAULTS.put("timeout", "10000");
+        DEFAULTS.put("items", "5000");
+        DEFAULTS.put("cashiers", "10");
+        DEFAULTS.put("shoppers", "40");
+        DEFAULTS.put("cashier.rate", "2");
+        DEFAULTS.put("cashier.items", "6");
+        DEFAULTS.put("shopper.rate", "10");
+        DEFAULTS.put("shopper.searches", "3");
+        DEFAULTS.put("admin.rate", "1");
+        DEFAULTS.put("bidder.rate", "3");
+    }
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Settings settings = new Settings(DEFAULTS, args);
+        System.out.println("Settings: " + settings);
+        long seed = settings.longInteger("seed");
+        int workers = settings.integer("workers");
+        System.setProperty("http.maxConnections", Integer.toString(workers));
+
+        Stats stats = new Stats();
+        System.out.println("Setting up the sale...");
+        SaleFixture sale = SaleFixture.create(settings, new Random(seed), stats);
+        System.out.println("Sale " + sale.saleId + " has " + sale.itemIds.length + " items, "
+                + sale.cashiers.size() + " cashiers and " + sale.shoppers.size() + " shoppers.");
+
+        Journeys journeys = new Journeys(sale, settings);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 0L,
+                TimeUnit.MILLISECONDS, new SynchronousQueue<>(),
+                new ThreadPoolExecutor.AbortPolicy());
+        pool.prestartAllCoreThreads();
+
+        long durationNanos = TimeUnit.SECONDS.toNanos(settings.integer("duration"));
+        long start = System.nanoTime();
+        long end = start + durationNanos;
+        List<Thread> arrivals = new ArrayList<>();
+        arrivals.add(arrivals("cashier", settings.decimal("cashier.rate"), journeys::cashier,
+                pool, stats, new Random(seed + 1), end));
+        arrivals.add(arrivals("shopper", settings.decimal("shopper.rate"), journeys::shopper,
+                pool, stats, new Random(seed + 2), end));
+        arrivals.add(arrivals("admin", settings.decimal("admin.rate"), journeys::admin,
+                pool, stats, new Random(seed + 3), end));
+        arrivals.add(arrivals("bidder", settings.decimal("bidder.rate"), journeys::bidder,
+                pool, stats, new Random(seed + 4), end));
+        for (Thread thread : arrivals) {
+            thread.join();
+        }
+
+        pool.shutdown();
+        pool.awaitTermination(settings.integer("timeout") * 10L, TimeUnit.MILLISECONDS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%nRan for %.1fs against %s%n%n", seconds, settings.string("baseUrl"));
+        stats.report(System.out, seconds);
+    }
+
+    /**
+     * Starts a thread that starts a journey at Poisson arrivals until the
+     * end of the run.
+     */
+    private static Thread arrivals(String journey, double rate, Runnable run,
+                                   ThreadPoolExecutor pool, Stats stats, Random random,
+                                   long end) {
+        Thread thread = new Thread(() -> {
+            if (rate <= 0) {
+                return;
+            }
+            long next = System.nanoTime();
+            while (true) {
+                next += (long) (-Math.log(1 - random.nextDouble()) / rate * 1e9);
+                if (next >= end) {
+                    return;
+                }
+                for (long wait; (wait = next - System.nanoTime()) > 0; ) {
+                    LockSupport.parkNanos(wait);
+                }
+                try {
+                    pool.execute(() -> {
+                        try {
+                            run.run();
+                        } catch (RuntimeException e) {
+                            stats.record(journey + ": failed", 0, false);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    stats.dropped(journey);
+                }
+            }
+        }, "arrivals-" + journey);
+        thread.start();
+        return thread;
+    }
+}
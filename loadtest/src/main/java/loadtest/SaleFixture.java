@@ -0,0 +1,154 @@
+package loadtest;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A fresh sale for one load test run, set up through the app itself: an
+ * admin, cashiers added as sale members, shoppers who browse and bid, and
+ * a catalog imported as CSV. Emails are unique per run, so runs can repeat
+ * against the same database.
+ */
+public final class SaleFixture {
+
+    /**
+     * Words item names and shopper searches are made from.
+     */
+    static final String[] WORDS = {
+        "vintage", "oak", "lamp", "bicycle", "record", "blue", "chair", "mirror",
+        "toaster", "quilt", "guitar", "set", "box", "brass", "camera", "table",
+        "dresser", "rug", "kettle", "books"
+    };
+
+    private static final String PASSWORD = "loadtest-password";
+    private static final Pattern ITEM_LINK = Pattern.compile("href=\"/items/(\\d+)\"");
+    private static final Pattern NEXT_PAGE = Pattern.compile("href=\"\\?after=([^\"&]+)");
+
+    final int saleId;
+    final Client admin;
+    final List<Client> cashiers;
+    final List<Client> shoppers;
+    final int[] itemIds;
+
+    private SaleFixture(int saleId, Client admin, List<Client> cashiers, List<Client> shoppers,
+                        int[] itemIds) {
+        this.saleId = saleId;
+        this.admin = admin;
+        this.cashiers = cashiers;
+        this.shoppers = shoppers;
+        this.itemIds = itemIds;
+    }
+
+    /**
+     * Sets up the sale. Requests made here aren't recorded, but the
+     * users' clients record their journeys in the given stats.
+     *
+     * @param settings load test settings
+     * @param random source of item names and prices
+     * @param stats where the users' journeys are recorded
+     * @return the sale
+     */
+    static SaleFixture create(Settings settings, Random random, Stats stats) {
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        String baseUrl = settings.string("baseUrl");
+        int timeout = settings.integer("timeout");
+
+        Client admin = register(new Client(baseUrl, timeout, stats), "admin-" + run);
+        SimpleDateFormat day = new SimpleDateFormat("yyyy-MM-dd");
+        Date today = new Date();
+        Client.Response sale = admin.post(null, "/sales/new",
+                "name", "Load Test " + run,
+                "startDate", day.format(today),
+                "endDate", day.format(new Date(today.getTime() + TimeUnit.DAYS.toMillis(1))));
+        int saleId = idFrom(sale, "/sales/");
+
+        StringBuilder csv = new StringBuilder("name,price,description,bidding\n");
+        for (int i = 0; i < settings.integer("items"); i++) {
+            csv.append(WORDS[random.nextInt(WORDS.length)]).append(' ')
+                    .append(WORDS[random.nextInt(WORDS.length)]).append(' ').append(i)
+                    .append(',').append(1 + random.nextInt(200)).append(".00,")
+                    .append("Load test item,").append(random.nextBoolean()).append('\n');
+        }
+        Client.Response imported = admin.post(null, "/sales/" + saleId + "/items/import",
+                "text/csv", csv.toString().getBytes(StandardCharsets.UTF_8));
+        check(imported, "import items");
+
+        List<Client> cashiers = new ArrayList<>();
+        for (int i = 0; i < settings.integer("cashiers"); i++) {
+            Client cashier = register(new Client(baseUrl, timeout, stats),
+                    "cashier-" + i + "-" + run);
+            check(admin.post(null, "/sales/" + saleId + "/addMember",
+                    "email", "cashier-" + i + "-" + run + "@gatech.edu", "role", "Cashier"),
+                    "add cashier");
+            cashiers.add(cashier);
+        }
+        List<Client> shoppers = new ArrayList<>();
+        for (int i = 0; i < settings.integer("shoppers"); i++) {
+            shoppers.add(register(new Client(baseUrl, timeout, stats),
+                    "shopper-" + i + "-" + run));
+        }
+
+        return new SaleFixture(saleId, admin, cashiers, shoppers, itemIds(admin, saleId));
+    }
+
+    /**
+     * Registers a user, which also logs them in.
+     */
+    private static Client register(Client client, String name) {
+        check(client.post(null, "/register", "name", name, "email", name + "@gatech.edu",
+                "password", PASSWORD, "confirmPassword", PASSWORD), "register " + name);
+        return client;
+    }
+
+    /**
+     * Collects item ids by paging through the sale's catalog.
+     */
+    private static int[] itemIds(Client admin, int saleId) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        String path = "/sales/" + saleId + "/items";
+        while (path != null) {
+            Client.Response page = admin.get(null, path);
+            check(page, "list items");
+            Matcher item = ITEM_LINK.matcher(page.body);
+            while (item.find()) {
+                ids.add(Integer.parseInt(item.group(1)));
+            }
+            Matcher next = NEXT_PAGE.matcher(page.body);
+            path = next.find() ? "/sales/" + saleId + "/items?after=" + next.group(1) : null;
+        }
+        if (ids.isEmpty()) {
+            throw new IllegalStateException("The load test sale has no items.");
+        }
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    static int idFrom(Client.Response response, String prefix) {
+        check(response, "follow redirect to " + prefix);
+        if (response.location == null || !response.location.startsWith(prefix)) {
+            throw new IllegalStateException("Expected a redirect to " + prefix
+                    + " but got " + response.status + " " + response.location);
+        }
+        String rest = response.location.substring(prefix.length());
+        int end = 0;
+        while (end < rest.length() && Character.isDigit(rest.charAt(end))) {
+            end++;
+        }
+        return Integer.parseInt(rest.substring(0, end));
+    }
+
+    private static void check(Client.Response response, String what) {
+        if (!response.ok()) {
+            throw new IllegalStateException("Could not " + what + ": HTTP "
+                    + response.status + "\n" + response.body);
+        }
+    }
+}
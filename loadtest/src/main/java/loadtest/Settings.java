@@ -0,0 +1,53 @@
+package loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings for a tool, given as key=value arguments. Any key left out keeps
+ * its default.
+ */
+public final class Settings {
+
+    private final Map<String, String> values;
+
+    /**
+     * Parses key=value arguments over the defaults.
+     *
+     * @param defaults every known key and its default, in the order to show them
+     * @param args command line arguments
+     * @throws IllegalArgumentException on an unknown key or malformed argument
+     */
+    public Settings(Map<String, String> defaults, String[] args) {
+        this.values = new LinkedHashMap<>(defaults);
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0 || !defaults.containsKey(arg.substring(0, eq))) {
+                throw new IllegalArgumentException("Unknown setting: " + arg
+                        + "\nSettings and defaults: " + defaults);
+            }
+            values.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+    }
+
+    public String string(String key) {
+        return values.get(key);
+    }
+
+    public int integer(String key) {
+        return Integer.parseInt(values.get(key));
+    }
+
+    public long longInteger(String key) {
+        return Long.parseLong(values.get(key));
+    }
+
+    public double decimal(String key) {
+        return Double.parseDouble(values.get(key));
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
@@ -0,0 +1,83 @@
+package loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency, throughput and errors per journey step, plus arrivals turned
+ * away because every worker was busy.
+ */
+public final class Stats {
+
+    private static final long MAX_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    private final Map<String, Step> steps = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> dropped = new ConcurrentSkipListMap<>();
+
+    /**
+     * Records one request.
+     *
+     * @param step name of the step
+     * @param nanos time from sending the request to reading the whole response
+     * @param ok whether the response was what the journey expected
+     */
+    public void record(String step, long nanos, boolean ok) {
+        steps.computeIfAbsent(step, s -> new Step()).record(nanos, ok);
+    }
+
+    /**
+     * Records a journey that couldn't start because every worker was busy.
+     *
+     * @param journey name of the journey
+     */
+    public void dropped(String journey) {
+        dropped.computeIfAbsent(journey, j -> new LongAdder()).increment();
+    }
+
+    /**
+     * Prints a table of every step.
+     *
+     * @param out where to print
+     * @param seconds how long the test ran
+     */
+    public void report(PrintStream out, double seconds) {
+        out.printf("%-28s %8s %8s %7s %8s %8s %8s %8s %8s%n", "step", "requests", "req/s",
+                "errors", "p50 ms", "p90 ms", "p95 ms", "p99 ms", "max ms");
+        for (Map.Entry<String, Step> entry : steps.entrySet()) {
+            Step step = entry.getValue();
+            Histogram latency = step.latency.copy();
+            long count = latency.getTotalCount();
+            out.printf("%-28s %8d %8.1f %6.2f%% %8.1f %8.1f %8.1f %8.1f %8.1f%n",
+                    entry.getKey(), count, count / seconds,
+                    count == 0 ? 0.0 : 100.0 * step.errors.sum() / count,
+                    millis(latency, 50), millis(latency, 90), millis(latency, 95),
+                    millis(latency, 99), latency.getMaxValue() / 1000.0);
+        }
+        for (Map.Entry<String, LongAdder> entry : dropped.entrySet()) {
+            out.printf("%s: %d arrivals dropped with every worker busy%n",
+                    entry.getKey(), entry.getValue().sum());
+        }
+    }
+
+    private static double millis(Histogram latency, double percentile) {
+        return latency.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static final class Step {
+        final ConcurrentHistogram latency = new ConcurrentHistogram(1, MAX_MICROS, 3);
+        final LongAdder errors = new LongAdder();
+
+        void record(long nanos, boolean ok) {
+            latency.recordValue(Math.min(MAX_MICROS, Math.max(1, nanos / 1000)));
+            if (!ok) {
+                errors.increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import models.Item;
+import models.Sale;
+import models.Transaction;
+import models.User;
+import org.junit.*;
+
+import static play.test.Helpers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Guards the all-transactions report against N+1 loading: reading every
+ * transaction's seller and items must take a fixed number of queries no
+ * matter how many transactions the sale has.
+ */
+public class ReportQueryCountTest {
+
+    private static final int SELLERS = 3;
+    private static final int TRANSACTIONS = 30;
+    private static final int ITEMS_PER_TRANSACTION = 2;
+
+    @Test
+    public void reportTransactionsLoadInBoundedQueries() {
+        running(fakeApplication(), () -> {
+            String run = UUID.randomUUID().toString();
+            User admin = new User("Admin", "admin-" + run + "@gatech.edu", "pass");
+            admin.save();
+            Sale sale = new Sale(admin);
+            sale.name = "Report";
+            sale.save();
+
+            List<User> sellers = new ArrayList<>();
+            for (int s = 0; s < SELLERS; s++) {
+                User seller = new User("Seller " + s, "seller-" + s + "-" + run + "@gatech.edu",
+                        "pass");
+                seller.save();
+                sellers.add(seller);
+            }
+
+            for (int t = 0; t < TRANSACTIONS; t++) {
+                Transaction transaction = new Transaction(sale, sellers.get(t % SELLERS));
+                transaction.customerName = "Customer " + t;
+                transaction.save();
+
+                List<Integer> itemIds = new ArrayList<>();
+                for (int i = 0; i < ITEMS_PER_TRANSACTION; i++) {
+                    Item item = new Item(admin, "Item " + t + "-" + i, 1.0, false);
+                    item.addToSale(sale);
+                    itemIds.add(item.id);
+                }
+                Transaction.Checkout checkout =
+                        transaction.sellItems(itemIds, Collections.emptyMap());
+                assertTrue("Rejected " + checkout.rejected, checkout.rejected.isEmpty());
+                assertEquals(ITEMS_PER_TRANSACTION, checkout.sold.size());
+            }
+            assertEquals(TRANSACTIONS * ITEMS_PER_TRANSACTION,
+                    sale.findPurchasedItems().findRowCount());
+
+            Sale reloaded = Sale.findById(sale.id);
+            try (SqlCounter counter = new SqlCounter()) {
+                List<Transaction> transactions = reloaded.findReportTransactions();
+                int items = 0;
+                for (Transaction transaction : transactions) {
+                    assertNotNull(transaction.formattedCreatedAt());
+                    assertTrue(transaction.seller.name.startsWith("Seller "));
+                    for (Item item : transaction.items) {
+                        assertNotNull(item.name);
+                        assertNotNull(item.formattedPrice());
+                        items++;
+                    }
+                }
+
+                assertEquals(TRANSACTIONS, transactions.size());
+                assertEquals(TRANSACTIONS * ITEMS_PER_TRANSACTION, items);
+                assertTrue("Report took " + counter.count() + " queries",
+                        counter.count() <= 2);
+            }
+        });
+    }
+}
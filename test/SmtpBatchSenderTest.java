@@ -0,0 +1,39 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import models.MailOutbox;
+import org.junit.*;
+import services.SmtpBatchSender;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a batch of outbox messages is delivered over one SMTP
+ * connection, using a local fake SMTP sink.
+ */
+public class SmtpBatchSenderTest {
+
+    @Test
+    public void sendsWholeBatchOverOneConnection() throws Exception {
+        try (FakeSmtpServer sink = new FakeSmtpServer()) {
+            SmtpBatchSender sender = new SmtpBatchSender("localhost", sink.port(),
+                    false, null, null);
+
+            List<MailOutbox.Message> batch = new ArrayList<>();
+            for (int i = 1; i <= 3; i++) {
+                batch.add(new MailOutbox.Message(i, "GarageBuddy <noreply@garagebuddy.io>",
+                        Arrays.asList("Seller <seller@gatech.edu>"),
+                        "Transaction " + i, "Receipt " + i, 1));
+            }
+
+            Map<Integer, Exception> failures = sender.send(batch);
+
+            assertTrue(failures.isEmpty());
+            assertEquals(1, sink.connections());
+            assertEquals(3, sink.messages().size());
+            assertTrue(sink.messages().get(2).contains("Receipt 3"));
+        }
+    }
+}
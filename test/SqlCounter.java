@@ -0,0 +1,48 @@
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the SQL statements Ebean runs, including lazy loads, by listening
+ * to its SQL log. Attach after the application has started, since Play
+ * reconfigures logging on startup.
+ */
+public class SqlCounter extends AppenderBase<ILoggingEvent> implements AutoCloseable {
+
+    private static final String SQL_LOGGER = "org.avaje.ebean.SQL";
+
+    private final Logger logger = (Logger) LoggerFactory.getLogger(SQL_LOGGER);
+    private final Level previousLevel = logger.getLevel();
+    private final AtomicInteger statements = new AtomicInteger();
+
+    public SqlCounter() {
+        setContext(logger.getLoggerContext());
+        start();
+        logger.setLevel(Level.TRACE);
+        logger.addAppender(this);
+    }
+
+    public int count() {
+        return statements.get();
+    }
+
+    public void reset() {
+        statements.set(0);
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        statements.incrementAndGet();
+    }
+
+    @Override
+    public void close() {
+        logger.detachAppender(this);
+        logger.setLevel(previousLevel);
+        stop();
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import models.Item;
+import models.Sale;
+import models.Transaction;
+import models.User;
+import org.junit.*;
+
+import static play.test.Helpers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Stress test for many registers selling the same items at once. Runs
+ * against the configured Postgres database, since the claim relies on its
+ * row-level write semantics.
+ */
+public class TransactionConcurrencyTest {
+
+    private static final int REGISTERS = 12;
+    private static final int ITEMS = 40;
+
+    @Test
+    public void itemsAreNeverSoldTwice() {
+        running(fakeApplication(), () -> {
+            User cashier = new User("Cashier",
+                    "cashier-" + UUID.randomUUID() + "@gatech.edu", "pass");
+            cashier.save();
+            Sale sale = new Sale(cashier);
+            sale.name = "Concurrency";
+            sale.save();
+
+            List<Integer> itemIds = new ArrayList<>();
+            for (int i = 0; i < ITEMS; i++) {
+                Item item = new Item(cashier, "Item " + i, 1.0, false);
+                item.addToSale(sale);
+                itemIds.add(item.id);
+            }
+            assertEquals(ITEMS, sale.findUnpurchasedItems().findRowCount());
+
+            List<Transaction> registers = new ArrayList<>();
+            for (int r = 0; r < REGISTERS; r++) {
+                Transaction transaction = new Transaction(sale, cashier);
+                transaction.customerName = "Customer " + r;
+                transaction.save();
+                registers.add(transaction);
+            }
+
+            AtomicInteger sold = new AtomicInteger();
+            AtomicInteger conflicts = new AtomicInteger();
+            CountDownLatch start = new CountDownLatch(1);
+            ExecutorService pool = Executors.newFixedThreadPool(REGISTERS);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int r = 0; r < REGISTERS; r++) {
+                Transaction transaction = registers.get(r);
+                List<Integer> scanOrder = new ArrayList<>(itemIds);
+                Collections.shuffle(scanOrder, new Random(r));
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (Integer itemId : scanOrder) {
+                        Item item = Item.findById(itemId);
+                        item.soldFor = item.price;
+                        try {
+                            transaction.addItem(item, true);
+                            sold.incrementAndGet();
+                        } catch (Item.ItemPurchasedException e) {
+                            conflicts.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            try {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            } finally {
+                pool.shutdown();
+            }
+
+            assertEquals(ITEMS, sold.get());
+            assertEquals(ITEMS * (REGISTERS - 1), conflicts.get());
+
+            int totalItems = 0;
+            for (Transaction transaction : registers) {
+                Transaction reloaded = Transaction.findById(transaction.id);
+                assertEquals(reloaded.numItems, reloaded.findItems().findRowCount());
+                totalItems += reloaded.numItems;
+            }
+            assertEquals(ITEMS, totalItems);
+            assertEquals(ITEMS, sale.findPurchasedItems().findRowCount());
+        });
+    }
+}